@@ -1,6 +1,8 @@
 package com.github.dawidkski.scanner.camera;
 
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
@@ -14,21 +16,31 @@ import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.Surface;
 
 import com.github.dawidkski.scanner.camera.frame.CameraFrame;
+import com.github.dawidkski.scanner.camera.frame.FramePool;
 import com.github.dawidkski.scanner.camera.frame.RGBACameraFrame;
+import com.github.dawidkski.scanner.camera.size.FrameSize;
+import com.github.dawidkski.scanner.camera.size.PreviewSizePolicy;
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.metrics.Metrics;
 
 import org.jetbrains.annotations.NotNull;
+import org.opencv.core.Mat;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static android.hardware.camera2.CameraMetadata.LENS_FACING_FRONT;
 
@@ -36,7 +48,18 @@ import static android.hardware.camera2.CameraMetadata.LENS_FACING_FRONT;
 public class Camera {
 
     private static final int PREVIEW_FORMAT = ImageFormat.YUV_420_888;
-    private static final int MAX_UNSPECIFIED = -1;
+    private static final int PREVIEW_MAX_IMAGES = 2;
+    private static final int STILL_QUEUE_CAPACITY = 2;
+    private static final int ZSL_RING_SIZE = 3;
+    // Bigger frames can't be streamed continuously by most sensors
+    private static final long ZSL_MAX_PIXELS = 12_000_000;
+    // Full resolution frames are part of the repeating request, a slower stream would
+    // throttle the preview
+    private static final int ZSL_MIN_FPS = 30;
+    // Preview frames copied for a recording but not written yet, later ones are dropped
+    private static final int RECORDING_MAX_QUEUED_FRAMES = 8;
+    // Share of the still image side a mapped contour may stick out of it, it's clipped then
+    private static final float STILL_CONTOUR_TOLERANCE = 0.02f;
 
     private static final SparseIntArray ORIENTATIONS = new SparseIntArray();
 
@@ -54,13 +77,31 @@ public class Camera {
     Handler backgroundHandler;
 
     private final CameraDeviceStateCallback cameraDeviceStateCallback;
-    private final Size maxPreviewSize;
+    private final FramePool framePool;
+    private final StillImageQueue stillImageQueue;
+    private final Queue<StillCapture> pendingCaptures = new ConcurrentLinkedQueue<>();
     private final ImageReader.OnImageAvailableListener onImageAvailableListener
             = new ImageReader.OnImageAvailableListener() {
         @Override
         public void onImageAvailable(ImageReader reader) {
-            Log.d(this.getClass().getSimpleName(), "Posting saving to file: " + file.toString());
-            backgroundHandler.post(new ImageSaver(reader.acquireNextImage(), file, stillImageListener));
+            Image image = reader.acquireNextImage();
+            StillCapture capture = pendingCaptures.poll();
+            if (image == null || capture == null) {
+                Log.e(this.getClass().getSimpleName(), "Unexpected still image");
+                if (image != null) {
+                    image.close();
+                }
+                return;
+            }
+            if (stillImageFormat == ImageFormat.YUV_420_888) {
+                // YUV doesn't respect JPEG_ORIENTATION, image is rotated when converted
+                stillImageQueue.submit(new StillImageConverter(image, capture.orientation,
+                        capture.contour, stillImageListener));
+                return;
+            }
+            Log.d(this.getClass().getSimpleName(), "Queue saving to file: " + capture.file.toString());
+            stillImageQueue.submit(new ImageSaver(image, capture.file, capture.contour, syncPolicy,
+                    stillImageListener));
         }
     };
 
@@ -70,22 +111,59 @@ public class Camera {
     private StillImageListener stillImageListener;
     private ImageReader stillImageReader;
     private ImageReader previewImageReader;
-    private File file;
-    private int screenOrientation;
+    private ImageReader zslImageReader;
+    private ZslRingBuffer zslRingBuffer;
+    private volatile boolean zeroShutterLag;
+    private Surface previewSurface;
+    private Size previewSize;
+    private int surfaceWidth;
+    private int surfaceHeight;
+    private int stillImageFormat = ImageFormat.JPEG;
+    private SyncPolicy syncPolicy = SyncPolicy.NONE;
+    private PreviewSizePolicy previewSizePolicy = new PreviewSizePolicy();
+    private volatile int maxFps = Integer.MAX_VALUE;
+    private volatile PreviewRecorder previewRecorder;
+    // Session was asked for before the camera opened, used only on the camera thread
+    private boolean startPending;
     private int sensorOrientation;
 
     public Camera() {
         this.cameraDeviceStateCallback = new CameraDeviceStateCallback(this);
-        this.maxPreviewSize = new Size(-1, -1);
+        this.framePool = new FramePool(PREVIEW_MAX_IMAGES);
+        this.stillImageQueue = new StillImageQueue(STILL_QUEUE_CAPACITY);
+    }
+
+    public boolean takePicture(File file, int screenOrientation) {
+        return takePicture(file, screenOrientation, null);
     }
 
-    public void takePicture(File file, int screenOrientation) {
-        this.file = file;
-        this.screenOrientation = screenOrientation;
-        captureStillPicture();
+    /**
+     * @param previewContour document contour found on preview frames, it's mapped to the still
+     *                       image and handed to {@link StillImageListener} to seed the scan
+     * @return false when the picture wasn't taken because previous ones are still being saved
+     */
+    public boolean takePicture(File file, int screenOrientation, Quad previewContour) {
+        if (!stillImageQueue.reserve()) {
+            Log.w(this.getClass().getSimpleName(), "takePicture: still image queue is full");
+            return false;
+        }
+        int orientation = getOrientation(screenOrientation);
+        Quad stillContour = previewContour == null ? null : mapToStillImage(previewContour, orientation);
+        if (zeroShutterLag) {
+            return takeZslPicture(orientation, stillContour);
+        }
+        StillCapture capture = new StillCapture(file, orientation, stillContour);
+        pendingCaptures.add(capture);
+        if (!captureStillPicture(capture)) {
+            pendingCaptures.remove(capture);
+            stillImageQueue.cancelReservation();
+            return false;
+        }
+        return true;
     }
 
     public void open(CameraManager manager) {
+        startPending = false;
         startBackgroundThread();
 
         try {
@@ -103,14 +181,14 @@ public class Camera {
                     continue;
                 }
 
-                // For still image captures, we use the largest available size.
-                Size largest = Collections.max(
-                        Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)),
-                        new CompareSizesByArea());
-                stillImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(),
-                        ImageFormat.JPEG, 1);
-                stillImageReader.setOnImageAvailableListener(
-                        onImageAvailableListener, backgroundHandler);
+                if (zeroShutterLag && !openZslImageReader(map)) {
+                    Log.w(this.getClass().getSimpleName(), "No size can be streamed at "
+                            + ZSL_MIN_FPS + " fps, falling back to still captures");
+                    zeroShutterLag = false;
+                }
+                if (!zeroShutterLag) {
+                    openStillImageReader(map);
+                }
                 sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
 
                 manager.openCamera(cameraId, cameraDeviceStateCallback, backgroundHandler);
@@ -126,9 +204,32 @@ public class Camera {
         }
     }
 
-    public void start(int surfaceWidth, int surfaceHeight) {
+    /**
+     * Starts the preview session on the camera thread, once the camera has opened when it's
+     * still opening.
+     */
+    public void start(final int surfaceWidth, final int surfaceHeight) {
         Log.d(this.getClass().getSimpleName(), "start");
-        createCameraPreviewSession(surfaceWidth, surfaceHeight);
+        this.surfaceWidth = surfaceWidth;
+        this.surfaceHeight = surfaceHeight;
+        backgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (cameraDevice == null) {
+                    startPending = true;
+                    return;
+                }
+                createCameraPreviewSession(surfaceWidth, surfaceHeight);
+            }
+        });
+    }
+
+    void onOpened(CameraDevice cameraDevice) {
+        this.cameraDevice = cameraDevice;
+        if (startPending) {
+            startPending = false;
+            createCameraPreviewSession(surfaceWidth, surfaceHeight);
+        }
     }
 
     public void close() {
@@ -145,10 +246,21 @@ public class Camera {
             }
         } finally {
             stopBackgroundThread();
+            stopRecording();
             if (null != previewImageReader) {
                 previewImageReader.close();
                 previewImageReader = null;
             }
+            if (null != zslImageReader) {
+                zslRingBuffer.clear();
+                zslImageReader.close();
+                zslImageReader = null;
+            }
+            framePool.clear();
+            // Captures still in flight won't deliver their images anymore
+            while (pendingCaptures.poll() != null) {
+                stillImageQueue.cancelReservation();
+            }
         }
         Log.d(this.getClass().getSimpleName(), "camera closed");
     }
@@ -161,31 +273,151 @@ public class Camera {
         this.stillImageListener = stillImageListener;
     }
 
+    /**
+     * Selects how still images are delivered, must be set before {@link #open(CameraManager)}.
+     * {@link ImageFormat#JPEG} images are written to the file given to {@link #takePicture},
+     * {@link ImageFormat#YUV_420_888} ones are converted and handed over in memory.
+     */
+    public void setStillImageFormat(int stillImageFormat) {
+        if (stillImageFormat != ImageFormat.JPEG && stillImageFormat != ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException("Unsupported still image format: " + stillImageFormat);
+        }
+        this.stillImageFormat = stillImageFormat;
+    }
+
+    /**
+     * Takes pictures from a ring of recent full resolution frames streamed together with
+     * the preview. The preview isn't interrupted and there's no shutter lag, but the sensor
+     * streams big frames all the time, which costs battery, thermal headroom and memory
+     * bandwidth, so it's off unless enabled. Pictures are always delivered in memory, like with
+     * {@link ImageFormat#YUV_420_888} still images. Must be set before {@link #open(CameraManager)}.
+     * <p>
+     * Cameras which can't stream such frames at the preview rate, or which refuse the streams
+     * together, fall back to still captures.
+     */
+    public void setZeroShutterLag(boolean zeroShutterLag) {
+        this.zeroShutterLag = zeroShutterLag;
+    }
+
+    /**
+     * Selects how much of a written still image has to reach the storage before it's reported.
+     */
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    /**
+     * Additional surface the preview is drawn into by the camera itself, e.g. one of a SurfaceView.
+     * Must be set before {@link #start(int, int)}, null disables it.
+     */
+    public void setPreviewSurface(Surface previewSurface) {
+        this.previewSurface = previewSurface;
+    }
+
+    /**
+     * Selects the size of preview frames, must be set before {@link #start(int, int)}.
+     */
+    public void setPreviewSizePolicy(PreviewSizePolicy previewSizePolicy) {
+        this.previewSizePolicy = previewSizePolicy;
+    }
+
+    /**
+     * Limits the preview frame rate, the AE target range with the highest upper bound not above
+     * {@code maxFps} is used. Takes effect right away when the preview is running.
+     */
+    public void setMaxFps(int maxFps) {
+        this.maxFps = maxFps;
+        Handler handler = backgroundHandler;
+        if (handler == null) {
+            return;
+        }
+        // Serialized with session callbacks, which run on the background thread as well
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (cameraCaptureSession == null || previewRequestBuilder == null) {
+                    return;
+                }
+                applyFpsRange();
+                try {
+                    previewRequest = previewRequestBuilder.build();
+                    cameraCaptureSession.setRepeatingRequest(previewRequest, null, backgroundHandler);
+                } catch (CameraAccessException | IllegalStateException e) {
+                    Log.e(Camera.class.getSimpleName(), "setMaxFps", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records raw preview frames, with their strides, timestamps and the contour detected
+     * at the time, into a file which can be replayed with
+     * {@link com.github.dawidkski.scanner.camera.replay.ReplayFrameSource}.
+     * Frames are written on a background thread, when it falls behind frames are left out.
+     */
+    public void startRecording(File file, ContourSource contourSource) {
+        stopRecording();
+        previewRecorder = new PreviewRecorder(file, contourSource, RECORDING_MAX_QUEUED_FRAMES);
+    }
+
+    /**
+     * Finishes the recording, frames already copied are still written. Closing the camera
+     * stops the recording as well.
+     */
+    public void stopRecording() {
+        PreviewRecorder recorder = previewRecorder;
+        previewRecorder = null;
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    public boolean isRecording() {
+        return previewRecorder != null;
+    }
+
+    public FramePool getFramePool() {
+        return framePool;
+    }
+
     private void startBackgroundThread() {
         stopBackgroundThread();
         backgroundThread = new HandlerThread("Camera");
         backgroundThread.start();
         backgroundHandler = new Handler(backgroundThread.getLooper());
+        stillImageQueue.start();
     }
 
     private void stopBackgroundThread() {
-        if (backgroundThread == null)
-            return;
-        backgroundThread.quitSafely();
-        try {
-            backgroundThread.join();
-            backgroundThread = null;
-            backgroundHandler = null;
-        } catch (InterruptedException e) {
-            Log.e(this.getClass().getSimpleName(), "stopBackgroundThread", e);
+        // Camera thread goes first, callbacks it still runs submit still images to the queue
+        if (backgroundThread != null) {
+            backgroundThread.quitSafely();
+            try {
+                backgroundThread.join();
+                backgroundThread = null;
+                backgroundHandler = null;
+            } catch (InterruptedException e) {
+                Log.e(this.getClass().getSimpleName(), "stopBackgroundThread", e);
+            }
         }
+        stillImageQueue.stop();
     }
 
     private void createCameraPreviewSession(int surfaceWidth, int surfaceHeight) {
         StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-        List<Size> sizes = Arrays.asList(Objects.requireNonNull(map).getOutputSizes(ImageReader.class));
-        Size previewSize = calculateCameraFrameSize(sizes, surfaceWidth, surfaceHeight);
-        Log.d(this.getClass().getSimpleName(), " Using preview size = " + previewSize);
+        List<FrameSize> sizes = new ArrayList<>();
+        for (Size size : Objects.requireNonNull(map).getOutputSizes(ImageReader.class)) {
+            sizes.add(new FrameSize(size.getWidth(), size.getHeight()));
+        }
+        ImageReader stillReader = getStillImageReader();
+        FrameSize stillSize = new FrameSize(stillReader.getWidth(), stillReader.getHeight());
+        // Frames are only analyzed when the camera draws the preview into its own surface
+        PreviewSizePolicy.Selection selection = previewSurface != null
+                ? previewSizePolicy.selectAnalysisSize(sizes, stillSize)
+                : previewSizePolicy.selectDisplaySize(sizes, stillSize, surfaceWidth, surfaceHeight);
+        previewSize = new Size(selection.getSize().getWidth(), selection.getSize().getHeight());
+        Log.d(this.getClass().getSimpleName(), "Using preview size = " + selection
+                + ", still size = " + stillSize + ", surface = " + surfaceWidth + "x" + surfaceHeight);
 
         final int width = previewSize.getWidth();
         final int height = previewSize.getHeight();
@@ -203,15 +435,24 @@ public class Camera {
                 return;
             }
 
-            previewImageReader = ImageReader.newInstance(width, height, PREVIEW_FORMAT, 2);
+            previewImageReader = ImageReader.newInstance(width, height, PREVIEW_FORMAT,
+                    PREVIEW_MAX_IMAGES);
             previewImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
                 @Override
                 public void onImageAvailable(ImageReader reader) {
                     Image image = reader.acquireLatestImage();
-                    if (image == null)
+                    if (image == null) {
+                        // Image of this callback went away with an earlier acquireLatestImage()
+                        Metrics.increment(Metrics.Counter.FRAMES_DROPPED);
                         return;
+                    }
+                    Metrics.increment(Metrics.Counter.FRAMES_ACQUIRED);
+                    PreviewRecorder recorder = previewRecorder;
+                    if (recorder != null) {
+                        recorder.record(image);
+                    }
 
-                    try (CameraFrame frame = new RGBACameraFrame(image)) {
+                    try (CameraFrame frame = new RGBACameraFrame(image, framePool)) {
                         previewFrameListener.onPreviewFrame(frame);
                     }
 
@@ -220,51 +461,115 @@ public class Camera {
             Surface surface = previewImageReader.getSurface();
 
             previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            applyFpsRange();
             previewRequestBuilder.addTarget(surface);
 
-            cameraDevice.createCaptureSession(Arrays.asList(surface, stillImageReader.getSurface()),
-                    new CameraCaptureStateCallback(this), null
-            );
+            List<Surface> outputs = new ArrayList<>();
+            outputs.add(surface);
+            if (zeroShutterLag) {
+                // Full resolution frames are part of the repeating request
+                previewRequestBuilder.addTarget(zslImageReader.getSurface());
+                outputs.add(zslImageReader.getSurface());
+            } else {
+                outputs.add(stillImageReader.getSurface());
+            }
+            if (previewSurface != null) {
+                // Size of the surface is rounded by the camera to the nearest supported one
+                previewRequestBuilder.addTarget(previewSurface);
+                outputs.add(previewSurface);
+            }
+
+            cameraDevice.createCaptureSession(outputs, new CameraCaptureStateCallback(this), null);
 
         } catch (CameraAccessException e) {
             Log.e(this.getClass().getSimpleName(), "createCameraPreviewSession", e);
         }
     }
 
-    private Size calculateCameraFrameSize(List<Size> supportedSizes, int surfaceWidth, int surfaceHeight) {
-        int calcWidth = 0;
-        int calcHeight = 0;
-
-        int maxWidth = maxPreviewSize.getWidth();
-        int maxHeight = maxPreviewSize.getHeight();
-
-        int maxAllowedWidth = (maxWidth != MAX_UNSPECIFIED && maxWidth < surfaceWidth) ? maxWidth : surfaceWidth;
-        int maxAllowedHeight = (maxHeight != MAX_UNSPECIFIED && maxHeight < surfaceHeight) ? maxHeight : surfaceHeight;
+    /**
+     * Called when the capture session couldn't be configured with the streams it was given.
+     */
+    void onConfigureFailed() {
+        if (!zeroShutterLag || cameraDevice == null) {
+            Log.e(this.getClass().getSimpleName(), "Capture session can't be configured");
+            return;
+        }
+        Log.w(this.getClass().getSimpleName(),
+                "Zero shutter lag streams aren't supported, falling back to still captures");
+        zeroShutterLag = false;
+        zslRingBuffer.clear();
+        zslImageReader.close();
+        zslImageReader = null;
+        previewImageReader.close();
+        previewImageReader = null;
+        openStillImageReader(characteristics.get(
+                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP));
+        createCameraPreviewSession(surfaceWidth, surfaceHeight);
+    }
 
-        for (Size size : supportedSizes) {
-            int width = size.getWidth();
-            int height = size.getHeight();
-            Log.d(this.getClass().getSimpleName(), "trying size: " + width + "x" + height);
+    private void openStillImageReader(StreamConfigurationMap map) {
+        // For still image captures, we use the largest available size.
+        Size largest = Collections.max(
+                Arrays.asList(map.getOutputSizes(stillImageFormat)),
+                new CompareSizesByArea());
+        // Every image waiting in the queue holds its buffer
+        stillImageReader = ImageReader.newInstance(largest.getWidth(),
+                largest.getHeight(), stillImageFormat, stillImageQueue.getCapacity());
+        stillImageReader.setOnImageAvailableListener(
+                onImageAvailableListener, backgroundHandler);
+    }
 
-            if (width <= maxAllowedWidth && height <= maxAllowedHeight && width >= calcWidth && height >= calcHeight) {
-                calcWidth = width;
-                calcHeight = height;
+    /**
+     * @return false when no size can be streamed at {@link #ZSL_MIN_FPS}.
+     */
+    private boolean openZslImageReader(StreamConfigurationMap map) {
+        long maxFrameDuration = 1_000_000_000L / ZSL_MIN_FPS;
+        Size largest = null;
+        for (Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            long pixels = (long) size.getWidth() * size.getHeight();
+            if (pixels <= ZSL_MAX_PIXELS
+                    && map.getOutputMinFrameDuration(ImageFormat.YUV_420_888, size)
+                    <= maxFrameDuration
+                    && (largest == null || new CompareSizesByArea().compare(size, largest) > 0)) {
+                largest = size;
             }
         }
+        if (largest == null) {
+            return false;
+        }
+        Log.d(this.getClass().getSimpleName(), "Using zero shutter lag size = " + largest);
+        zslRingBuffer = new ZslRingBuffer(ZSL_RING_SIZE);
+        // One more image lets the newest frame in before the oldest one is given back,
+        // pictures waiting in the queue keep their buffers
+        zslImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(),
+                ImageFormat.YUV_420_888,
+                zslRingBuffer.getSize() + 1 + stillImageQueue.getCapacity());
+        zslImageReader.setOnImageAvailableListener(zslRingBuffer, backgroundHandler);
+        return true;
+    }
 
-        return new Size(calcWidth, calcHeight);
+    private boolean takeZslPicture(int orientation, Quad stillContour) {
+        Image image = zslRingBuffer == null ? null : zslRingBuffer.takeSharpest();
+        if (image == null) {
+            Log.w(this.getClass().getSimpleName(), "takePicture: no frame to take the picture from");
+            stillImageQueue.cancelReservation();
+            return false;
+        }
+        stillImageQueue.submit(new StillImageConverter(image, orientation, stillContour,
+                stillImageListener));
+        return true;
     }
 
-    void captureStillPicture() {
+    private boolean captureStillPicture(StillCapture capture) {
         Log.d(this.getClass().getSimpleName(), "captureStillPicture");
         try {
             if (cameraDevice == null) {
-                return;
+                return false;
             }
             final CaptureRequest.Builder captureBuilder =
                     cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
             captureBuilder.addTarget(stillImageReader.getSurface());
-            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(screenOrientation));
+            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, capture.orientation);
 
             CameraCaptureSession.CaptureCallback captureCallback
                     = new CameraCaptureSession.CaptureCallback() {
@@ -285,9 +590,102 @@ public class Camera {
             cameraCaptureSession.stopRepeating();
             cameraCaptureSession.abortCaptures();
             cameraCaptureSession.capture(captureBuilder.build(), captureCallback, null);
+            return true;
         } catch (CameraAccessException e) {
             e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Every stream shows the largest centered part of the sensor's active array with its own
+     * aspect ratio, so a preview point maps to the still image with a single scale and an offset.
+     *
+     * @return contour in still image coordinates, rotated like the still image, or null when it
+     * lies outside of the still image
+     */
+    private Quad mapToStillImage(Quad previewContour, int orientation) {
+        Rect activeArray = characteristics.get(
+                CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        if (previewSize == null || activeArray == null) {
+            return null;
+        }
+        // Both streams are in sensor orientation, the still image is rotated afterwards
+        // by JPEG_ORIENTATION
+        ImageReader reader = getStillImageReader();
+        int stillWidth = reader.getWidth();
+        int stillHeight = reader.getHeight();
+        RectF previewField = streamField(activeArray, previewSize.getWidth(),
+                previewSize.getHeight());
+        RectF stillField = streamField(activeArray, stillWidth, stillHeight);
+        Quad stillContour = previewContour
+                .scale(previewField.width() / previewSize.getWidth())
+                .translate(previewField.left - stillField.left, previewField.top - stillField.top)
+                .scale(stillWidth / stillField.width());
+
+        float toleranceX = STILL_CONTOUR_TOLERANCE * stillWidth;
+        float toleranceY = STILL_CONTOUR_TOLERANCE * stillHeight;
+        float[] points = stillContour.getPoints();
+        for (int i = 0; i < Quad.CORNERS; i++) {
+            float x = points[2 * i];
+            float y = points[2 * i + 1];
+            if (x < -toleranceX || x > stillWidth + toleranceX
+                    || y < -toleranceY || y > stillHeight + toleranceY) {
+                // Preview shows more than the still image, the contour is of no use as a seed
+                Log.d(this.getClass().getSimpleName(), "Contour outside of the still image");
+                return null;
+            }
+            points[2 * i] = Math.max(0, Math.min(stillWidth, x));
+            points[2 * i + 1] = Math.max(0, Math.min(stillHeight, y));
         }
+        return new Quad(points, stillContour.getConfidence())
+                .rotate(orientation, stillWidth, stillHeight);
+    }
+
+    /**
+     * @return part of the active array a stream of the given size shows, relative to the array.
+     */
+    private static RectF streamField(Rect activeArray, int width, int height) {
+        float arrayWidth = activeArray.width();
+        float arrayHeight = activeArray.height();
+        float fieldWidth = arrayWidth;
+        float fieldHeight = arrayHeight;
+        if ((float) width / height > arrayWidth / arrayHeight) {
+            fieldHeight = arrayWidth * height / width;
+        } else {
+            fieldWidth = arrayHeight * width / height;
+        }
+        float left = (arrayWidth - fieldWidth) / 2;
+        float top = (arrayHeight - fieldHeight) / 2;
+        return new RectF(left, top, left + fieldWidth, top + fieldHeight);
+    }
+
+    private void applyFpsRange() {
+        Range<Integer>[] ranges = characteristics.get(
+                CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return;
+        }
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() > maxFps) {
+                continue;
+            }
+            // Highest frame rate first, then the widest range leaving AE room in low light
+            if (best == null || range.getUpper() > best.getUpper()
+                    || (range.getUpper().equals(best.getUpper())
+                    && range.getLower() < best.getLower())) {
+                best = range;
+            }
+        }
+        if (best != null) {
+            Log.d(this.getClass().getSimpleName(), "Using AE target FPS range " + best);
+            previewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, best);
+        }
+    }
+
+    private ImageReader getStillImageReader() {
+        return zeroShutterLag ? zslImageReader : stillImageReader;
     }
 
     private int getOrientation(int rotation) {
@@ -308,12 +706,50 @@ public class Camera {
         }
     }
 
+    /**
+     * What has to reach the storage before a written still image is reported.
+     */
+    public enum SyncPolicy {
+        /** Leave flushing to the system, the file is read back from the page cache anyway */
+        NONE,
+        /** Flush file content */
+        DATA,
+        /** Flush file content and metadata */
+        DATA_AND_METADATA
+    }
+
+    private static class StillCapture {
+
+        final File file;
+        final int orientation;
+        final Quad contour;
+
+        StillCapture(File file, int orientation, Quad contour) {
+            this.file = file;
+            this.orientation = orientation;
+            this.contour = contour;
+        }
+
+    }
+
+    public interface ContourSource {
+        /**
+         * @return latest contour detected on preview frames, in their coordinates, or null.
+         */
+        Quad getLatestContour();
+    }
+
     public interface PreviewFrameListener {
         void onPreviewFrame(CameraFrame frame);
     }
 
     public interface StillImageListener {
-        void onStillImage();
+        /**
+         * @param image   upright RGB image when captured in memory, null when it was written to a file
+         * @param file    file the image was written to, null when captured in memory
+         * @param contour document contour in still image coordinates or null when unknown
+         */
+        void onStillImage(Mat image, File file, Quad contour);
     }
 
 }
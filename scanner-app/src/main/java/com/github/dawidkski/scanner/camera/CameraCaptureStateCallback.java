@@ -33,6 +33,7 @@ class CameraCaptureStateCallback extends CameraCaptureSession.StateCallback {
     @Override
     public void onConfigureFailed(@NotNull CameraCaptureSession cameraCaptureSession) {
         Log.e(this.getClass().getSimpleName(), "onConfigureFailed");
+        camera.onConfigureFailed();
     }
 
 }
@@ -15,7 +15,7 @@ class CameraDeviceStateCallback extends CameraDevice.StateCallback {
 
     @Override
     public void onOpened(@NotNull CameraDevice cameraDevice) {
-        camera.cameraDevice = cameraDevice;
+        camera.onOpened(cameraDevice);
     }
 
     @Override
@@ -6,21 +6,25 @@ import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-import com.github.dawidkski.scanner.camera.frame.CameraFrame;
+import com.github.dawidkski.scanner.camera.pipeline.FramePipeline;
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.metrics.Metrics;
 
 import org.opencv.android.FpsMeter;
 import org.opencv.android.Utils;
 import org.opencv.core.Mat;
 
 public class CameraView extends SurfaceView
-        implements SurfaceHolder.Callback, Camera.PreviewFrameListener {
+        implements SurfaceHolder.Callback, FramePipeline.Renderer {
 
     private final Matrix matrix = new Matrix();
+    private final ContourOverlay contourOverlay = new ContourOverlay();
+    private volatile Quad contour;
     private Bitmap cacheBitmap;
-    private CameraViewListener listener;
     private SurfaceListener surfaceListener;
     private FpsMeter fpsMeter = null;
 
@@ -61,8 +65,26 @@ public class CameraView extends SurfaceView
     }
 
     @Override
-    public void onPreviewFrame(CameraFrame frame) {
-        deliverAndDrawFrame(frame);
+    public boolean needsFrames() {
+        return true;
+    }
+
+    @Override
+    public void render(Mat frame) {
+        drawFrame(frame);
+    }
+
+    @Override
+    public void onContourChanged(Quad contour, int frameWidth, int frameHeight) {
+        this.contour = contour;
+    }
+
+    /**
+     * @return surface the camera should draw the preview into, or null when frames are
+     * delivered through {@link #render(Mat)}.
+     */
+    public Surface getPreviewSurface() {
+        return null;
     }
 
     public void setSurfaceListener(SurfaceListener surfaceListener) {
@@ -81,38 +103,37 @@ public class CameraView extends SurfaceView
         fpsMeter = null;
     }
 
-    public void setListener(CameraViewListener listener) {
-        this.listener = listener;
-    }
-
     private void updateMatrix() {
         matrix.reset();
         matrix.preTranslate(this.getWidth(), 0);
         matrix.preRotate(90);
     }
 
-    private void deliverAndDrawFrame(CameraFrame frame) {
-        Mat modified;
-        if (listener != null) {
-            modified = listener.onCameraFrame(frame);
-        } else {
-            modified = frame.get();
-        }
-
+    private void drawFrame(Mat modified) {
         if (cacheBitmap == null) {
             cacheBitmap = Bitmap.createBitmap(modified.width(), modified.height(), Bitmap.Config.ARGB_8888);
         }
 
+        long start = System.nanoTime();
         try {
             Utils.matToBitmap(modified, cacheBitmap);
         } catch (Exception e) {
             Log.e(this.getClass().getSimpleName(), "Utils.matToBitmap() throws an exception: " + e.getMessage());
         }
+        Metrics.record(Metrics.Timer.MAT_TO_BITMAP, start);
 
+        start = System.nanoTime();
         Canvas canvas = getHolder().lockHardwareCanvas();
+        Metrics.record(Metrics.Timer.CANVAS_LOCK, start);
         int saveCount = canvas.save();
         canvas.drawBitmap(cacheBitmap, matrix, null);
 
+        // Contour is in frame coordinates, so it shares the bitmap matrix
+        Quad currentContour = contour;
+        if (currentContour != null) {
+            contourOverlay.draw(canvas, currentContour, matrix);
+        }
+
         //Restore canvas after draw bitmap
         canvas.restoreToCount(saveCount);
 
@@ -120,7 +141,9 @@ public class CameraView extends SurfaceView
             fpsMeter.measure();
             fpsMeter.draw(canvas, 20, 30);
         }
+        start = System.nanoTime();
         getHolder().unlockCanvasAndPost(canvas);
+        Metrics.record(Metrics.Timer.CANVAS_POST, start);
     }
 
     interface SurfaceListener {
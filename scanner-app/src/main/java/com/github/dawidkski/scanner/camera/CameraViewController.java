@@ -1,8 +1,16 @@
 package com.github.dawidkski.scanner.camera;
 
+import com.github.dawidkski.scanner.camera.pipeline.FrameGovernor;
+import com.github.dawidkski.scanner.camera.pipeline.FramePipeline;
+import com.github.dawidkski.scanner.camera.replay.ReplayFrameSource;
+import com.github.dawidkski.scanner.detection.Quad;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
 
 public class CameraViewController
-        implements CameraView.SurfaceListener, Camera.StillImageListener {
+        implements CameraView.SurfaceListener, Camera.StillImageListener, FrameGovernor.Listener {
 
     private static final int STOPPED = 0;
     private static final int STARTED = 1;
@@ -10,27 +18,83 @@ public class CameraViewController
     private final Object syncObject = new Object();
     private final CameraView cameraView;
     private final Camera camera;
+    private final FramePipeline pipeline;
+    private final FrameGovernor governor;
 
     private int currentState = STOPPED;
     private boolean isCameraPermissionGranted = false;
     private boolean isEnabled;
     private boolean surfaceExist;
     private CameraViewListener listener;
+    private ReplayFrameSource replaySource;
+    private ReplayFrameSource activeReplaySource;
 
 
     public CameraViewController(CameraView cameraView, Camera camera) {
         cameraView.setSurfaceListener(this);
         camera.setStillImageListener(this);
-        camera.setPreviewFrameListener(cameraView);
 
         this.cameraView = cameraView;
         this.camera = camera;
+        this.pipeline = new FramePipeline(camera.getFramePool(), cameraView);
+        this.governor = new FrameGovernor();
+        governor.setListener(this);
+        pipeline.setGovernor(governor);
+        camera.setPreviewFrameListener(pipeline);
 
     }
 
     public void setListener(CameraViewListener listener) {
         this.listener = listener;
-        cameraView.setListener(listener);
+        pipeline.setListener(listener);
+    }
+
+    public void enableLumaAnalysis(int pyramidLevels) {
+        pipeline.enableLumaAnalysis(pyramidLevels);
+    }
+
+    public void disableLumaAnalysis() {
+        pipeline.disableLumaAnalysis();
+    }
+
+    /**
+     * @return latest contour detected on preview frames or null.
+     */
+    public Quad getLatestContour() {
+        return pipeline.getLatestContour();
+    }
+
+    /**
+     * Records preview frames with the contours detected on them, see
+     * {@link Camera#startRecording(File, Camera.ContourSource)}.
+     */
+    public void startRecording(File file) {
+        camera.startRecording(file, pipeline);
+    }
+
+    public void stopRecording() {
+        camera.stopRecording();
+    }
+
+    public boolean isRecording() {
+        return camera.isRecording();
+    }
+
+    public FrameGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * Feeds the preview pipeline from a recording instead of the camera, which isn't started
+     * at all then. Null goes back to the camera. Takes effect the next time the view starts.
+     */
+    public void setReplaySource(ReplayFrameSource replaySource) {
+        synchronized (syncObject) {
+            this.replaySource = replaySource;
+            if (replaySource != null) {
+                replaySource.setPreviewFrameListener(pipeline);
+            }
+        }
     }
 
     public void setCameraPermissionGranted() {
@@ -84,10 +148,25 @@ public class CameraViewController
     }
 
     private void onEnterStartedState() {
+        pipeline.start();
+        activeReplaySource = replaySource;
+        if (activeReplaySource != null) {
+            activeReplaySource.start();
+            return;
+        }
+        camera.setMaxFps(governor.getLevel().getMaxFps());
+        camera.setPreviewSurface(cameraView.getPreviewSurface());
         camera.start(cameraView.getHeight(), cameraView.getWidth());
     }
 
     private void onExitStartedState() {
+        // Stop rendering before the surface goes away, frames still coming from camera are dropped
+        pipeline.stop();
+        if (activeReplaySource != null) {
+            activeReplaySource.stop();
+            activeReplaySource = null;
+            return;
+        }
         camera.close();
     }
 
@@ -113,8 +192,13 @@ public class CameraViewController
     }
 
     @Override
-    public void onStillImage() {
-        listener.onPictureTaken();
+    public void onLevelChanged(FrameGovernor.Level level) {
+        camera.setMaxFps(level.getMaxFps());
+    }
+
+    @Override
+    public void onStillImage(Mat image, File file, Quad contour) {
+        listener.onPictureTaken(image, file, contour);
     }
 
 }
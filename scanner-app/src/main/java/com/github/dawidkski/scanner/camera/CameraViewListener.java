@@ -1,13 +1,36 @@
 package com.github.dawidkski.scanner.camera;
 
 import com.github.dawidkski.scanner.camera.frame.CameraFrame;
+import com.github.dawidkski.scanner.detection.Quad;
 
 import org.opencv.core.Mat;
 
+import java.io.File;
+
 public interface CameraViewListener {
 
+    /**
+     * Called from the analyze stage when luma analysis is disabled. The frame is rendered
+     * without waiting for this call, so what's drawn into it may not show.
+     *
+     * @return ignored, frames are rendered as they were converted
+     */
     Mat onCameraFrame(CameraFrame inputFrame);
 
-    void onPictureTaken();
+    /**
+     * Called instead of {@link #onCameraFrame(CameraFrame)} when luma analysis is enabled.
+     *
+     * @param gray downscaled luminance of the frame
+     * @return document contour in coordinates of {@code gray} or null when there is none
+     */
+    Quad onAnalysisFrame(Mat gray);
+
+    /**
+     * @param image   picture captured in memory, listener takes its ownership;
+     *                null when the picture was written to a file
+     * @param file    file the picture was written to, null when captured in memory
+     * @param contour document contour in picture coordinates, when it was known from preview
+     */
+    void onPictureTaken(Mat image, File file, Quad contour);
 
 }
@@ -0,0 +1,48 @@
+package com.github.dawidkski.scanner.camera;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import com.github.dawidkski.scanner.detection.Quad;
+
+/**
+ * Draws the document contour as vector geometry over the preview, so frames themselves
+ * are never modified.
+ */
+class ContourOverlay {
+
+    private static final float CONTOUR_WIDTH = 8f;
+
+    private final Path path = new Path();
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float[] points = new float[2 * Quad.CORNERS];
+
+    ContourOverlay() {
+        paint.setColor(Color.GREEN);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(CONTOUR_WIDTH);
+    }
+
+    /**
+     * @param frameToView maps preview frame coordinates to canvas coordinates
+     */
+    void draw(Canvas canvas, Quad contour, Matrix frameToView) {
+        for (int i = 0; i < Quad.CORNERS; i++) {
+            points[2 * i] = contour.x(i);
+            points[2 * i + 1] = contour.y(i);
+        }
+        frameToView.mapPoints(points);
+
+        path.rewind();
+        path.moveTo(points[0], points[1]);
+        for (int i = 1; i < Quad.CORNERS; i++) {
+            path.lineTo(points[2 * i], points[2 * i + 1]);
+        }
+        path.close();
+        canvas.drawPath(path, paint);
+    }
+
+}
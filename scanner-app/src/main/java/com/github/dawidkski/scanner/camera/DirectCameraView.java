@@ -0,0 +1,80 @@
+package com.github.dawidkski.scanner.camera;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.util.AttributeSet;
+import android.view.Surface;
+
+import com.github.dawidkski.scanner.detection.Quad;
+
+import org.opencv.core.Mat;
+
+/**
+ * Preview drawn by the camera straight into the view surface and composed by the hardware,
+ * frames never reach Java code. Only the contour is drawn on top of it, as a path.
+ * <p>
+ * The camera gets the raw {@link android.view.SurfaceView} surface rather than a
+ * SurfaceTexture drawn with GL. There's no GPU pass, but the compositor stretches the preview
+ * over the view without aspect correction, so the preview is distorted unless the view has the
+ * aspect of the preview frames. The contour is stretched the same way to stay on the page.
+ * That's why it's opt-in: {@link CameraView} is the default, use this view in its place in the
+ * layout where the view's aspect is known to match the preview.
+ */
+public class DirectCameraView extends CameraView {
+
+    private final Matrix contourMatrix = new Matrix();
+    private final ContourOverlay contourOverlay = new ContourOverlay();
+
+    private volatile Quad contour;
+    private volatile int frameWidth;
+    private volatile int frameHeight;
+
+    public DirectCameraView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        // SurfaceView skips drawing by default, the contour is drawn over the camera surface
+        setWillNotDraw(false);
+    }
+
+    @Override
+    public boolean needsFrames() {
+        return false;
+    }
+
+    @Override
+    public void render(Mat frame) {
+        /* Camera draws the preview on its own */
+    }
+
+    @Override
+    public void onContourChanged(Quad contour, int frameWidth, int frameHeight) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.contour = contour;
+        postInvalidate();
+    }
+
+    @Override
+    public Surface getPreviewSurface() {
+        return getHolder().getSurface();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        Quad current = contour;
+        if (current == null || frameWidth == 0 || frameHeight == 0) {
+            return;
+        }
+
+        // Camera frames are in sensor orientation, rotate them like the surface content
+        // and stretch over the view like the compositor stretches the preview
+        contourMatrix.reset();
+        contourMatrix.postScale((float) getHeight() / frameWidth, (float) getWidth() / frameHeight);
+        contourMatrix.postRotate(90);
+        contourMatrix.postTranslate(getWidth(), 0);
+        contourOverlay.draw(canvas, current, contourMatrix);
+    }
+
+}
@@ -5,39 +5,59 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.metrics.Metrics;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
-class ImageSaver implements Runnable {
+class ImageSaver implements StillImageQueue.Task {
 
     private final Image image;
     private final File file;
+    private final Quad contour;
+    private final Camera.SyncPolicy syncPolicy;
     private final Camera.StillImageListener listener;
 
-    ImageSaver(Image image, File file, Camera.StillImageListener listener) {
+    ImageSaver(Image image, File file, Quad contour, Camera.SyncPolicy syncPolicy,
+               Camera.StillImageListener listener) {
         this.image = image;
         this.file = file;
+        this.contour = contour;
+        this.syncPolicy = syncPolicy;
         this.listener = listener;
     }
 
     @Override
     public void run() {
         Log.d(ImageSaver.class.getSimpleName(), "Save image to " + file.toString());
+        // Image plane is a direct buffer, channel writes it without copying to the Java heap
         ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-        byte[] bytes = new byte[buffer.remaining()];
-        buffer.get(bytes);
+        int size = buffer.remaining();
+        long start = System.nanoTime();
+
+        try (FileOutputStream output = new FileOutputStream(file);
+             FileChannel channel = output.getChannel()) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (syncPolicy != Camera.SyncPolicy.NONE) {
+                channel.force(syncPolicy == Camera.SyncPolicy.DATA_AND_METADATA);
+            }
 
-        try (FileOutputStream output = new FileOutputStream(file)) {
-            output.write(bytes);
+            Metrics.record(Metrics.Timer.IMAGE_SAVE, start);
+            long latency = (System.nanoTime() - start) / 1_000_000;
+            Log.d(ImageSaver.class.getSimpleName(), "Saved " + size + " bytes in " + latency + " ms");
 
             // Call callback on main thread
             Handler mainHandler = new Handler(Looper.getMainLooper());
             mainHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    listener.onStillImage();
+                    listener.onStillImage(null, file, contour);
                 }
             });
 
@@ -48,4 +68,9 @@ class ImageSaver implements Runnable {
         }
     }
 
+    @Override
+    public void discard() {
+        image.close();
+    }
+
 }
@@ -0,0 +1,95 @@
+package com.github.dawidkski.scanner.camera;
+
+import android.media.Image;
+import android.util.Log;
+
+import com.github.dawidkski.scanner.camera.frame.Yuv420Converter;
+import com.github.dawidkski.scanner.camera.replay.FrameRecording;
+import com.github.dawidkski.scanner.camera.replay.FrameRecordingWriter;
+import com.github.dawidkski.scanner.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records preview images into a {@link FrameRecording} together with the contour detected
+ * most recently. Analysis runs behind the camera, so the contour belongs to a frame or two
+ * earlier. The file is created with the first image, when its geometry is known.
+ */
+class PreviewRecorder {
+
+    private final File file;
+    private final Camera.ContourSource contourSource;
+    private final int maxQueuedFrames;
+    private final ByteBuffer[] planes = new ByteBuffer[FrameRecording.PLANES];
+    private final int[] rowStrides = new int[FrameRecording.PLANES];
+    private final int[] pixelStrides = new int[FrameRecording.PLANES];
+    private FrameRecordingWriter writer;
+    private boolean closed;
+
+    PreviewRecorder(File file, Camera.ContourSource contourSource, int maxQueuedFrames) {
+        this.file = file;
+        this.contourSource = contourSource;
+        this.maxQueuedFrames = maxQueuedFrames;
+    }
+
+    synchronized void record(Image image) {
+        if (closed) {
+            return;
+        }
+        Image.Plane[] imagePlanes = image.getPlanes();
+        for (int i = 0; i < FrameRecording.PLANES; i++) {
+            planes[i] = imagePlanes[i].getBuffer();
+            rowStrides[i] = imagePlanes[i].getRowStride();
+            pixelStrides[i] = imagePlanes[i].getPixelStride();
+        }
+        if (writer == null) {
+            try {
+                writer = new FrameRecordingWriter(file, image.getWidth(), image.getHeight(),
+                        chromaLayout(), maxQueuedFrames);
+                Log.d(this.getClass().getSimpleName(), "Recording preview frames to " + file);
+            } catch (IOException e) {
+                Log.e(this.getClass().getSimpleName(), "Can't record to " + file, e);
+                closed = true;
+                return;
+            }
+        }
+        if (writer.write(image.getTimestamp(), contourSource.getLatestContour(), planes,
+                rowStrides, pixelStrides)) {
+            Metrics.increment(Metrics.Counter.FRAMES_RECORDED);
+        } else {
+            Metrics.increment(Metrics.Counter.FRAMES_NOT_RECORDED);
+        }
+    }
+
+    /**
+     * Writes the frames still queued and closes the file.
+     */
+    synchronized void close() {
+        closed = true;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), "Recording to " + file + " failed", e);
+        }
+        Log.d(this.getClass().getSimpleName(), "Recorded " + writer.getWritten()
+                + " frames to " + file + ", dropped " + writer.getDropped());
+        writer = null;
+    }
+
+    private int chromaLayout() {
+        if (pixelStrides[1] == 1) {
+            return FrameRecording.CHROMA_PLANAR;
+        }
+        long distance = Yuv420Converter.chromaDistance(planes[1], planes[2]);
+        if (distance == 1) {
+            return FrameRecording.CHROMA_NV12;
+        }
+        return distance == -1 ? FrameRecording.CHROMA_NV21 : FrameRecording.CHROMA_PLANAR;
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.github.dawidkski.scanner.camera;
+
+import android.media.Image;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.github.dawidkski.scanner.camera.frame.CameraFrame;
+import com.github.dawidkski.scanner.camera.frame.FramePool;
+import com.github.dawidkski.scanner.camera.frame.RGBACameraFrame;
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.metrics.Metrics;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Turns a YUV still image into an upright RGB Mat kept in memory, the counterpart
+ * of {@link ImageSaver} for captures which skip JPEG encoding and the file system.
+ */
+class StillImageConverter implements StillImageQueue.Task {
+
+    private final Image image;
+    private final int rotation;
+    private final Quad contour;
+    private final Camera.StillImageListener listener;
+    // Still images are too big to be kept around between captures
+    private final FramePool framePool = new FramePool(0);
+
+    /**
+     * @param rotation clockwise rotation in degrees which makes the image upright
+     */
+    StillImageConverter(Image image, int rotation, Quad contour, Camera.StillImageListener listener) {
+        this.image = image;
+        this.rotation = rotation;
+        this.contour = contour;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        Log.d(StillImageConverter.class.getSimpleName(), "Convert " + image.getWidth() + "x"
+                + image.getHeight() + " image");
+        final Mat rgb = new Mat();
+        try (CameraFrame frame = new RGBACameraFrame(image, framePool,
+                Metrics.Timer.STILL_CONVERT)) {
+            Imgproc.cvtColor(frame.get(), rgb, Imgproc.COLOR_RGBA2RGB);
+        }
+
+        if (rotation == 90) {
+            Core.rotate(rgb, rgb, Core.ROTATE_90_CLOCKWISE);
+        } else if (rotation == 180) {
+            Core.rotate(rgb, rgb, Core.ROTATE_180);
+        } else if (rotation == 270) {
+            Core.rotate(rgb, rgb, Core.ROTATE_90_COUNTERCLOCKWISE);
+        }
+
+        // Call callback on main thread
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onStillImage(rgb, null, contour);
+            }
+        });
+    }
+
+    @Override
+    public void discard() {
+        image.close();
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.github.dawidkski.scanner.camera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounded queue of still images waiting to be written or converted. Images are processed on
+ * a dedicated thread, so slow storage never stalls the camera thread delivering preview frames.
+ * A capture reserves its slot before it's requested, when the queue is full the capture is
+ * refused instead of blocking.
+ */
+class StillImageQueue {
+
+    private final int capacity;
+    private final Semaphore slots;
+    private HandlerThread thread;
+    private volatile Handler handler;
+
+    StillImageQueue(int capacity) {
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return false when there are already {@code capacity} images waiting.
+     */
+    boolean reserve() {
+        return slots.tryAcquire();
+    }
+
+    /**
+     * Gives back a slot of a capture which won't deliver any image.
+     */
+    void cancelReservation() {
+        slots.release();
+    }
+
+    /**
+     * Runs the task on the queue thread and frees its slot when the task finishes. When the queue
+     * is stopped, the task is discarded and its slot freed right away.
+     */
+    void submit(final Task task) {
+        final long submitted = System.nanoTime();
+        Handler handler = this.handler;
+        boolean posted = handler != null && handler.post(new Runnable() {
+            @Override
+            public void run() {
+                long waited = (System.nanoTime() - submitted) / 1_000_000;
+                Log.d(StillImageQueue.class.getSimpleName(), "Image waited in queue " + waited + " ms");
+                try {
+                    task.run();
+                } finally {
+                    slots.release();
+                }
+            }
+        });
+        if (!posted) {
+            Log.w(this.getClass().getSimpleName(), "Queue is stopped, image is dropped");
+            task.discard();
+            slots.release();
+        }
+    }
+
+    void start() {
+        stop();
+        thread = new HandlerThread("StillImage");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Waits for queued images to be processed, they still hold camera buffers.
+     */
+    void stop() {
+        if (thread == null)
+            return;
+        thread.quitSafely();
+        try {
+            thread.join();
+            thread = null;
+            handler = null;
+        } catch (InterruptedException e) {
+            Log.e(this.getClass().getSimpleName(), "stop", e);
+        }
+    }
+
+    /**
+     * Still image waiting to be written or converted.
+     */
+    interface Task extends Runnable {
+
+        /**
+         * Gives back the camera buffer of a task which won't run.
+         */
+        void discard();
+
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.github.dawidkski.scanner.camera;
+
+import android.media.Image;
+import android.media.ImageReader;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the most recent full resolution frames of the repeating request, so a picture is taken
+ * from what the camera has already delivered instead of issuing a separate still capture.
+ * Images stay in the {@link ImageReader}'s own buffers, the oldest one is given back as soon
+ * as a new one arrives, memory is bounded by the reader's {@code maxImages}.
+ * <p>
+ * At shutter time the sharpest of the kept frames is picked, which also filters out frames
+ * blurred by the tap itself.
+ */
+class ZslRingBuffer implements ImageReader.OnImageAvailableListener {
+
+    // Only every n-th pixel of every n-th row is looked at when measuring sharpness
+    private static final int SHARPNESS_STEP = 8;
+
+    private final Image[] images;
+    private int oldest;
+    private int count;
+
+    ZslRingBuffer(int size) {
+        this.images = new Image[size];
+    }
+
+    int getSize() {
+        return images.length;
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireNextImage();
+        if (image == null) {
+            return;
+        }
+        synchronized (this) {
+            if (count == images.length) {
+                images[oldest].close();
+                images[oldest] = image;
+                oldest = (oldest + 1) % images.length;
+            } else {
+                images[(oldest + count) % images.length] = image;
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Removes the sharpest kept frame from the ring, caller takes its ownership.
+     *
+     * @return null when no frame has been delivered yet
+     */
+    synchronized Image takeSharpest() {
+        int best = -1;
+        long bestSharpness = -1;
+        for (int i = 0; i < count; i++) {
+            int index = (oldest + i) % images.length;
+            long sharpness = sharpness(images[index]);
+            if (sharpness >= bestSharpness) {
+                best = i;
+                bestSharpness = sharpness;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        Image image = images[(oldest + best) % images.length];
+        // Close the gap, so the ring stays ordered from the oldest frame
+        for (int i = best; i < count - 1; i++) {
+            images[(oldest + i) % images.length] = images[(oldest + i + 1) % images.length];
+        }
+        count--;
+        images[(oldest + count) % images.length] = null;
+        Log.d(ZslRingBuffer.class.getSimpleName(), "Picked frame " + (best + 1) + " of "
+                + (count + 1) + ", sharpness " + bestSharpness);
+        return image;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < count; i++) {
+            int index = (oldest + i) % images.length;
+            images[index].close();
+            images[index] = null;
+        }
+        oldest = 0;
+        count = 0;
+    }
+
+    /**
+     * Sum of absolute horizontal and vertical differences of sampled luma pixels in the central
+     * half of the frame, where the document usually is.
+     */
+    private static long sharpness(Image image) {
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer luma = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        long sum = 0;
+        for (int y = height / 4; y < 3 * height / 4 - SHARPNESS_STEP; y += SHARPNESS_STEP) {
+            for (int x = width / 4; x < 3 * width / 4 - 1; x += SHARPNESS_STEP) {
+                int offset = y * rowStride + x * pixelStride;
+                int value = luma.get(offset) & 0xFF;
+                sum += Math.abs(value - (luma.get(offset + pixelStride) & 0xFF));
+                sum += Math.abs(value - (luma.get(offset + rowStride) & 0xFF));
+            }
+        }
+        return sum;
+    }
+
+}
@@ -11,6 +11,12 @@ public interface CameraFrame extends AutoCloseable {
 
     Mat get();
 
+    /**
+     * Single channel luminance of the frame. Frames backed by the camera image wrap its Y plane
+     * without copying, so the Mat is valid only until the frame is closed.
+     */
+    Mat gray();
+
     @Override
     void close();
 
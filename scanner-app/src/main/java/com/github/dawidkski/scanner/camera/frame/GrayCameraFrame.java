@@ -30,6 +30,11 @@ public class GrayCameraFrame implements CameraFrame {
         return mFrame;
     }
 
+    @Override
+    public Mat gray() {
+        return get();
+    }
+
     @Override
     public void close() {
         mImage.close();
@@ -0,0 +1,47 @@
+package com.github.dawidkski.scanner.camera.frame;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Frame already converted to a Mat owned by {@link FramePool}. Unlike frames backed by
+ * {@link android.media.Image} it doesn't hold any camera buffer, so it can be passed between threads.
+ */
+public class PooledCameraFrame implements CameraFrame {
+
+    private final FramePool mPool;
+    private Mat mFrame;
+    private Mat mGray;
+
+    public PooledCameraFrame(Mat frame, FramePool pool) {
+        mFrame = frame;
+        mPool = pool;
+    }
+
+    @Override
+    public Mat get() {
+        return mFrame;
+    }
+
+    @Override
+    public Mat gray() {
+        if (mFrame.channels() == 1) {
+            return mFrame;
+        }
+        if (mGray == null) {
+            mGray = mPool.acquireMat(mFrame.rows(), mFrame.cols(), CvType.CV_8UC1);
+            Imgproc.cvtColor(mFrame, mGray, Imgproc.COLOR_RGBA2GRAY);
+        }
+        return mGray;
+    }
+
+    @Override
+    public void close() {
+        mPool.releaseMat(mFrame);
+        mPool.releaseMat(mGray);
+        mFrame = null;
+        mGray = null;
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.github.dawidkski.scanner.camera.pipeline;
+
+import android.util.Log;
+
+/**
+ * Keeps preview processing within a latency and a load budget by trading analysis quality for
+ * time. {@link FramePipeline} reports how long each stage took, the governor averages the times
+ * and steps through {@link Level}s: first it analyzes fewer frames, then smaller ones and finally
+ * asks the camera for fewer frames altogether.
+ * <p>
+ * Latency is the time a frame spends in all the stages, load is the share of a core the stages
+ * take at the current frame rate and stride. A better level is chosen only when the times
+ * measured so far predict it stays within both budgets, which keeps the level from oscillating.
+ * A thermal floor keeps a hot device on a cheaper level no matter how fast the pipeline is.
+ */
+public class FrameGovernor {
+
+    public enum Stage { CONVERT, DETECT, RENDER }
+
+    public static final long DEFAULT_TARGET_LATENCY_MS = 50;
+    // Half of a core, the rest is left to the camera, rendering and the still image queue
+    public static final float DEFAULT_MAX_LOAD = 0.5f;
+
+    private static final Level[] LEVELS = {
+            new Level(1, 0, 30),
+            new Level(2, 0, 30),
+            new Level(2, 1, 30),
+            new Level(3, 1, 24),
+            new Level(4, 1, 15),
+    };
+    // Weight of the newest sample in the moving averages
+    private static final float SMOOTHING = 0.1f;
+    // Level is reconsidered after this many analyzed frames
+    private static final int EVALUATION_FRAMES = 30;
+    private static final float DEGRADE_RATIO = 1.2f;
+    // Halving both sides of a frame makes detection roughly four times cheaper
+    private static final float PYRAMID_LEVEL_COST = 4f;
+
+    private final float[] averageMs = new float[Stage.values().length];
+    private final long targetLatencyMs;
+    private final float maxLoad;
+
+    private volatile int level;
+    private volatile int thermalFloor;
+    private volatile Listener listener;
+    private int evaluatedFrames;
+
+    public FrameGovernor() {
+        this(DEFAULT_TARGET_LATENCY_MS, DEFAULT_MAX_LOAD);
+    }
+
+    /**
+     * @param targetLatencyMs time a frame should take through all the stages
+     * @param maxLoad         share of a single core the stages may take together
+     */
+    public FrameGovernor(long targetLatencyMs, float maxLoad) {
+        this.targetLatencyMs = targetLatencyMs;
+        this.maxLoad = maxLoad;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public Level getLevel() {
+        return LEVELS[level];
+    }
+
+    /**
+     * @return averaged time of the stage in milliseconds.
+     */
+    public synchronized float getAverageMs(Stage stage) {
+        return averageMs[stage.ordinal()];
+    }
+
+    /**
+     * Limits how good the level can get, 0 lifts the limit.
+     *
+     * @param floor share of the way to the cheapest level, in range [0, 1]
+     */
+    public void setThermalFloor(float floor) {
+        int floorLevel = Math.round(Math.max(0, Math.min(1, floor)) * (LEVELS.length - 1));
+        thermalFloor = floorLevel;
+        Log.d(this.getClass().getSimpleName(), "Thermal floor " + floorLevel);
+        synchronized (this) {
+            if (level < floorLevel) {
+                changeLevel(floorLevel);
+            }
+        }
+    }
+
+    public synchronized void record(Stage stage, long nanos) {
+        float ms = nanos / 1_000_000f;
+        int index = stage.ordinal();
+        averageMs[index] = averageMs[index] == 0
+                ? ms : averageMs[index] + SMOOTHING * (ms - averageMs[index]);
+
+        if (stage == Stage.DETECT && ++evaluatedFrames >= EVALUATION_FRAMES) {
+            evaluatedFrames = 0;
+            evaluate();
+        }
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < averageMs.length; i++) {
+            averageMs[i] = 0;
+        }
+        evaluatedFrames = 0;
+        changeLevel(thermalFloor);
+    }
+
+    private void evaluate() {
+        Level current = LEVELS[level];
+        float detectMs = averageMs[Stage.DETECT.ordinal()];
+        float latency = latency(detectMs);
+        float load = load(current, detectMs);
+
+        int target = level;
+        if ((latency > DEGRADE_RATIO * targetLatencyMs || load > DEGRADE_RATIO * maxLoad)
+                && level < LEVELS.length - 1) {
+            target = level + 1;
+        } else if (level > thermalFloor) {
+            Level better = LEVELS[level - 1];
+            float betterDetectMs = detectMs * (float) Math.pow(PYRAMID_LEVEL_COST,
+                    current.extraPyramidLevels - better.extraPyramidLevels);
+            if (latency(betterDetectMs) <= targetLatencyMs
+                    && load(better, betterDetectMs) <= maxLoad) {
+                target = level - 1;
+            }
+        }
+        if (target != level) {
+            Log.d(this.getClass().getSimpleName(), "Latency " + latency + " ms (convert "
+                    + averageMs[Stage.CONVERT.ordinal()] + ", detect " + detectMs + ", render "
+                    + averageMs[Stage.RENDER.ordinal()] + "), load " + load);
+            changeLevel(target);
+        }
+    }
+
+    private float latency(float detectMs) {
+        return averageMs[Stage.CONVERT.ordinal()] + detectMs + averageMs[Stage.RENDER.ordinal()];
+    }
+
+    private float load(Level settings, float detectMs) {
+        // Every frame is converted and rendered, only every stride-th one is analyzed
+        float perFrameMs = averageMs[Stage.CONVERT.ordinal()] + detectMs / settings.stride
+                + averageMs[Stage.RENDER.ordinal()];
+        return perFrameMs * settings.maxFps / 1000f;
+    }
+
+    private void changeLevel(int newLevel) {
+        if (newLevel == level) {
+            return;
+        }
+        level = newLevel;
+        Log.d(this.getClass().getSimpleName(), "Level " + newLevel + ": " + LEVELS[newLevel]);
+        Listener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.onLevelChanged(LEVELS[newLevel]);
+        }
+    }
+
+    /**
+     * Settings of the pipeline and camera for one step of degradation.
+     */
+    public static class Level {
+
+        private final int stride;
+        private final int extraPyramidLevels;
+        private final int maxFps;
+
+        Level(int stride, int extraPyramidLevels, int maxFps) {
+            this.stride = stride;
+            this.extraPyramidLevels = extraPyramidLevels;
+            this.maxFps = maxFps;
+        }
+
+        /**
+         * @return only every n-th frame is analyzed.
+         */
+        public int getStride() {
+            return stride;
+        }
+
+        /**
+         * @return how many more times by half analysis frames are downscaled.
+         */
+        public int getExtraPyramidLevels() {
+            return extraPyramidLevels;
+        }
+
+        /**
+         * @return upper bound of the camera frame rate.
+         */
+        public int getMaxFps() {
+            return maxFps;
+        }
+
+        @Override
+        public String toString() {
+            return "stride " + stride + ", pyramid +" + extraPyramidLevels + ", max " + maxFps + " fps";
+        }
+
+    }
+
+    public interface Listener {
+
+        /**
+         * Called from the thread which reported the timing that triggered the change.
+         */
+        void onLevelChanged(Level level);
+
+    }
+
+}
@@ -0,0 +1,284 @@
+package com.github.dawidkski.scanner.camera.pipeline;
+
+import android.util.Log;
+
+import com.github.dawidkski.scanner.camera.Camera;
+import com.github.dawidkski.scanner.camera.CameraViewListener;
+import com.github.dawidkski.scanner.camera.frame.CameraFrame;
+import com.github.dawidkski.scanner.camera.frame.FramePool;
+import com.github.dawidkski.scanner.camera.frame.PooledCameraFrame;
+import com.github.dawidkski.scanner.detection.Quad;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Splits preview processing into three stages running on their own threads:
+ * acquire (camera thread, converts the image and lets it go back to the camera),
+ * analyze (runs {@link CameraViewListener}) and render (draws frames on the screen).
+ * Stages are connected with {@link Mailbox}es, so a slow stage drops frames instead of
+ * stalling the ones before it.
+ * <p>
+ * With luma analysis enabled the analyze stage gets only a (downscaled) copy of the Y plane and
+ * returns the detected contour, which the {@link Renderer} draws over every frame as an overlay.
+ * Rendering is then independent of the analysis rate. When the {@link Renderer} doesn't need frames at all
+ * (camera draws directly into the view) the RGBA conversion is skipped altogether.
+ * <p>
+ * Without luma analysis the analyze stage gets the RGBA frame, which is rendered as soon as it's
+ * converted as well, not after the analysis. What the listener draws into it may not show.
+ * <p>
+ * An optional {@link FrameGovernor} gets the time of every stage and decides how many frames
+ * are analyzed and how much they are downscaled.
+ */
+public class FramePipeline implements Camera.PreviewFrameListener, Camera.ContourSource {
+
+    // Each mailbox and each stage worker can hold a single frame
+    private static final int FRAMES_IN_FLIGHT = 4;
+
+    private final FramePool framePool;
+    private final Renderer renderer;
+    private final Mailbox<CameraFrame> analyzeMailbox = new Mailbox<>();
+    private final Mailbox<CameraFrame> renderMailbox = new Mailbox<>();
+
+    private volatile CameraViewListener listener;
+    private volatile boolean lumaAnalysis;
+    private volatile int pyramidLevels;
+    private volatile int frameWidth;
+    private volatile int frameHeight;
+    private volatile Quad latestQuad;
+    private volatile FrameGovernor governor;
+    private long frameIndex;
+    private Thread analyzeThread;
+    private Thread renderThread;
+
+    private final Runnable analyzeLoop = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                CameraFrame frame;
+                while ((frame = analyzeMailbox.take()) != null) {
+                    long start = System.nanoTime();
+                    // Render stage has a reference of its own to frames it draws
+                    if (frame.get().channels() == 1) {
+                        analyzeLuma(frame);
+                    } else {
+                        analyze(frame);
+                    }
+                    record(FrameGovernor.Stage.DETECT, start);
+                    frame.close();
+                }
+            } catch (InterruptedException e) {
+                Log.e(FramePipeline.class.getSimpleName(), "analyze stage interrupted", e);
+            }
+        }
+    };
+
+    private final Runnable renderLoop = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                CameraFrame frame;
+                while ((frame = renderMailbox.take()) != null) {
+                    long start = System.nanoTime();
+                    try {
+                        renderer.render(frame.get());
+                    } finally {
+                        frame.close();
+                    }
+                    record(FrameGovernor.Stage.RENDER, start);
+                }
+            } catch (InterruptedException e) {
+                Log.e(FramePipeline.class.getSimpleName(), "render stage interrupted", e);
+            }
+        }
+    };
+
+    public FramePipeline(FramePool framePool, Renderer renderer) {
+        this.framePool = framePool;
+        this.renderer = renderer;
+        framePool.ensureCapacity(FRAMES_IN_FLIGHT);
+    }
+
+    public void setListener(CameraViewListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Feeds analysis with the Y plane downscaled {@code pyramidLevels} times by half
+     * instead of the full RGBA frame.
+     */
+    public void enableLumaAnalysis(int pyramidLevels) {
+        this.pyramidLevels = pyramidLevels;
+        this.lumaAnalysis = true;
+    }
+
+    /**
+     * Lets the governor adjust analysis to the measured stage times, null turns it off.
+     */
+    public void setGovernor(FrameGovernor governor) {
+        this.governor = governor;
+    }
+
+    public void disableLumaAnalysis() {
+        lumaAnalysis = false;
+        latestQuad = null;
+        renderer.onContourChanged(null, frameWidth, frameHeight);
+    }
+
+    public synchronized void start() {
+        if (analyzeThread != null) {
+            return;
+        }
+        Log.d(this.getClass().getSimpleName(), "start");
+        analyzeMailbox.open();
+        renderMailbox.open();
+        analyzeThread = new Thread(analyzeLoop, "Analyze");
+        renderThread = new Thread(renderLoop, "Render");
+        analyzeThread.start();
+        renderThread.start();
+    }
+
+    public synchronized void stop() {
+        if (analyzeThread == null) {
+            return;
+        }
+        recycle(analyzeMailbox.close());
+        recycle(renderMailbox.close());
+        try {
+            analyzeThread.join();
+            renderThread.join();
+        } catch (InterruptedException e) {
+            Log.e(this.getClass().getSimpleName(), "stop", e);
+        }
+        analyzeThread = null;
+        renderThread = null;
+        latestQuad = null;
+        renderer.onContourChanged(null, frameWidth, frameHeight);
+        Log.d(this.getClass().getSimpleName(), "stopped, frames dropped before analyze: "
+                + analyzeMailbox.getDropped() + ", before render: " + renderMailbox.getDropped());
+    }
+
+    /**
+     * @return latest contour found by luma analysis in preview frame coordinates or null.
+     */
+    @Override
+    public Quad getLatestContour() {
+        return latestQuad;
+    }
+
+    public long getAnalyzeDropped() {
+        return analyzeMailbox.getDropped();
+    }
+
+    public long getRenderDropped() {
+        return renderMailbox.getDropped();
+    }
+
+    @Override
+    public void onPreviewFrame(CameraFrame frame) {
+        long start = System.nanoTime();
+        FrameGovernor currentGovernor = governor;
+        FrameGovernor.Level level = currentGovernor == null ? null : currentGovernor.getLevel();
+        int stride = level == null ? 1 : level.getStride();
+        boolean analyzeFrame = listener != null && frameIndex++ % stride == 0;
+        boolean renderFrames = renderer.needsFrames();
+        if (analyzeFrame && lumaAnalysis) {
+            Mat gray = frame.gray();
+            frameWidth = gray.cols();
+            frameHeight = gray.rows();
+            int levels = pyramidLevels + (level == null ? 0 : level.getExtraPyramidLevels());
+            recycle(analyzeMailbox.offer(downscaledLuma(gray, levels)));
+            if (renderFrames) {
+                recycle(renderMailbox.offer(retainConverted(frame)));
+            }
+        } else if (analyzeFrame) {
+            recycle(analyzeMailbox.offer(retainConverted(frame)));
+            if (renderFrames) {
+                recycle(renderMailbox.offer(retainConverted(frame)));
+            }
+        } else if (renderFrames) {
+            recycle(renderMailbox.offer(retainConverted(frame)));
+        }
+        record(FrameGovernor.Stage.CONVERT, start);
+    }
+
+    private CameraFrame retainConverted(CameraFrame frame) {
+        Mat rgba = frame.get();
+        // Keep converted frame alive after camera closes its own frame
+        framePool.retainMat(rgba);
+        return new PooledCameraFrame(rgba, framePool);
+    }
+
+    private CameraFrame downscaledLuma(Mat gray, int levels) {
+        // Y plane wrapper is valid only within this callback, so it is always copied
+        Mat source = gray;
+        Mat scaled = null;
+        for (int level = 0; level < levels; level++) {
+            scaled = framePool.acquireMat((source.rows() + 1) / 2, (source.cols() + 1) / 2,
+                    CvType.CV_8UC1);
+            Imgproc.pyrDown(source, scaled);
+            if (source != gray) {
+                framePool.releaseMat(source);
+            }
+            source = scaled;
+        }
+        if (scaled == null) {
+            scaled = framePool.acquireMat(gray.rows(), gray.cols(), CvType.CV_8UC1);
+            gray.copyTo(scaled);
+        }
+        return new PooledCameraFrame(scaled, framePool);
+    }
+
+    private void analyzeLuma(CameraFrame frame) {
+        CameraViewListener currentListener = listener;
+        if (currentListener == null) {
+            return;
+        }
+        Mat gray = frame.get();
+        Quad quad = currentListener.onAnalysisFrame(gray);
+        latestQuad = quad == null ? null : quad.scale((float) frameWidth / gray.cols());
+        renderer.onContourChanged(latestQuad, frameWidth, frameHeight);
+    }
+
+    private void analyze(CameraFrame frame) {
+        CameraViewListener currentListener = listener;
+        if (currentListener == null) {
+            return;
+        }
+        // Frame may be drawn already, a modified copy returned by the listener isn't rendered
+        currentListener.onCameraFrame(frame);
+    }
+
+    private void record(FrameGovernor.Stage stage, long start) {
+        FrameGovernor currentGovernor = governor;
+        if (currentGovernor != null) {
+            currentGovernor.record(stage, System.nanoTime() - start);
+        }
+    }
+
+    private static void recycle(CameraFrame frame) {
+        if (frame != null) {
+            frame.close();
+        }
+    }
+
+    public interface Renderer {
+
+        /**
+         * @return false when the camera draws the preview on its own and the renderer
+         * only shows the contour, frames are then neither converted nor rendered.
+         */
+        boolean needsFrames();
+
+        void render(Mat frame);
+
+        /**
+         * Called from the analyze stage with the latest contour in preview frame coordinates,
+         * null when there is none.
+         */
+        void onContourChanged(Quad contour, int frameWidth, int frameHeight);
+
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.github.dawidkski.scanner.camera.pipeline;
+
+/**
+ * Single slot hand-off between two threads where the latest item wins.
+ * A producer never blocks: an item still waiting in the slot is replaced and counted as dropped.
+ */
+public class Mailbox<T> {
+
+    private T item;
+    private boolean closed = true;
+    private long dropped;
+
+    /**
+     * Puts the item into the slot.
+     *
+     * @return item that was replaced, or the offered item itself when the mailbox is closed.
+     * Caller is responsible for recycling it.
+     */
+    public synchronized T offer(T newItem) {
+        if (closed) {
+            return newItem;
+        }
+        T replaced = item;
+        item = newItem;
+        if (replaced != null) {
+            dropped++;
+        }
+        notifyAll();
+        return replaced;
+    }
+
+    /**
+     * Waits for an item.
+     *
+     * @return taken item or null when the mailbox has been closed.
+     */
+    public synchronized T take() throws InterruptedException {
+        while (item == null && !closed) {
+            wait();
+        }
+        T taken = item;
+        item = null;
+        return taken;
+    }
+
+    public synchronized void open() {
+        closed = false;
+        dropped = 0;
+    }
+
+    /**
+     * @return item left in the slot, caller is responsible for recycling it.
+     */
+    public synchronized T close() {
+        closed = true;
+        T left = item;
+        item = null;
+        notifyAll();
+        return left;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.github.dawidkski.scanner.camera.replay;
+
+import com.github.dawidkski.scanner.camera.frame.CameraFrame;
+import com.github.dawidkski.scanner.camera.frame.FramePool;
+import com.github.dawidkski.scanner.metrics.Metrics;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Counterpart of {@link com.github.dawidkski.scanner.camera.frame.RGBACameraFrame} for
+ * a recorded frame, converted the same way the camera image would be.
+ */
+public class ReplayCameraFrame implements CameraFrame {
+
+    private final RecordedFrame mRecorded;
+    private final FramePool mPool;
+    private Mat mFrame;
+    private Mat mGray;
+
+    public ReplayCameraFrame(RecordedFrame recorded, FramePool pool) {
+        mRecorded = recorded;
+        mPool = pool;
+    }
+
+    @Override
+    public Mat get() {
+        if (mFrame != null) {
+            return mFrame;
+        }
+
+        long start = System.nanoTime();
+        mFrame = mRecorded.toRgba(mPool);
+        Metrics.record(Metrics.Timer.FRAME_CONVERT, start);
+        return mFrame;
+    }
+
+    @Override
+    public Mat gray() {
+        if (mGray == null) {
+            mGray = new Mat(mRecorded.getHeight(), mRecorded.getWidth(), CvType.CV_8UC1,
+                    mRecorded.getPlane(0), mRecorded.getRowStride(0));
+        }
+        return mGray;
+    }
+
+    @Override
+    public void close() {
+        if (mGray != null) {
+            mGray.release();
+            mGray = null;
+        }
+        mPool.releaseMat(mFrame);
+        mFrame = null;
+        mRecorded.close();
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.github.dawidkski.scanner.camera.replay;
+
+import android.util.Log;
+
+import com.github.dawidkski.scanner.camera.Camera;
+import com.github.dawidkski.scanner.camera.frame.CameraFrame;
+import com.github.dawidkski.scanner.camera.frame.FramePool;
+import com.github.dawidkski.scanner.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link FrameRecording} into a {@link Camera.PreviewFrameListener} in place of
+ * the camera, so the preview pipeline can be measured and profiled without a camera and with
+ * the same frames every time. Frames are delivered on a thread of their own, one at a time and
+ * closed right after the listener returns, like camera frames.
+ * <p>
+ * Frames are paced by their recorded timestamps, by a fixed frame rate or not at all.
+ * Throughput of the finished replay is logged and handed to the {@link Listener}.
+ */
+public class ReplayFrameSource {
+
+    /** Frame rate which paces frames by their recorded timestamps */
+    public static final int RECORDED_RATE = -1;
+    /** Frame rate which delivers frames as fast as the listener takes them */
+    public static final int UNTHROTTLED = 0;
+
+    private final File recording;
+    private final FramePool framePool;
+
+    private volatile Camera.PreviewFrameListener previewFrameListener;
+    private volatile Listener listener;
+    private volatile int frameRate = RECORDED_RATE;
+    private volatile boolean looping;
+    private volatile boolean running;
+    private Thread thread;
+
+    private final Runnable replayLoop = new Runnable() {
+        @Override
+        public void run() {
+            long frames = 0;
+            long start = System.nanoTime();
+            try (FrameRecordingReader reader = new FrameRecordingReader(recording, framePool)) {
+                Log.d(ReplayFrameSource.class.getSimpleName(), "Replaying " + recording + ", "
+                        + reader.getWidth() + "x" + reader.getHeight());
+                long firstTimestamp = -1;
+                long firstDelivery = 0;
+                while (running) {
+                    RecordedFrame recorded = reader.next();
+                    if (recorded == null) {
+                        if (!looping || frames == 0) {
+                            break;
+                        }
+                        reader.rewind();
+                        firstTimestamp = -1;
+                        continue;
+                    }
+                    long now = System.nanoTime();
+                    if (firstTimestamp < 0) {
+                        firstTimestamp = recorded.getTimestampNanos();
+                        firstDelivery = now;
+                    }
+                    long due = dueTime(recorded, frames, start, firstTimestamp, firstDelivery);
+                    if (due > now) {
+                        LockSupport.parkNanos(due - now);
+                    }
+                    Metrics.increment(Metrics.Counter.FRAMES_ACQUIRED);
+                    try (CameraFrame frame = new ReplayCameraFrame(recorded, framePool)) {
+                        previewFrameListener.onPreviewFrame(frame);
+                    }
+                    frames++;
+                }
+            } catch (IOException e) {
+                Log.e(ReplayFrameSource.class.getSimpleName(), "replay failed", e);
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            Log.i(ReplayFrameSource.class.getSimpleName(), "Replayed " + frames + " frames in "
+                    + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms, "
+                    + framesPerSecond(frames, elapsedNanos) + " fps");
+            Listener currentListener = listener;
+            if (currentListener != null) {
+                currentListener.onReplayFinished(frames, elapsedNanos);
+            }
+        }
+    };
+
+    public ReplayFrameSource(File recording, FramePool framePool) {
+        this.recording = recording;
+        this.framePool = framePool;
+    }
+
+    public void setPreviewFrameListener(Camera.PreviewFrameListener previewFrameListener) {
+        this.previewFrameListener = previewFrameListener;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param frameRate frames per second, {@link #RECORDED_RATE} or {@link #UNTHROTTLED}
+     */
+    public void setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * Starts over at the end of the recording instead of finishing.
+     */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(replayLoop, "Replay");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        // Wakes it up from waiting for the next frame, interrupting would close the file
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Log.e(this.getClass().getSimpleName(), "stop", e);
+        }
+        thread = null;
+    }
+
+    private long dueTime(RecordedFrame frame, long frames, long start, long firstTimestamp,
+                         long firstDelivery) {
+        int rate = frameRate;
+        if (rate == RECORDED_RATE) {
+            return firstDelivery + frame.getTimestampNanos() - firstTimestamp;
+        }
+        if (rate == UNTHROTTLED) {
+            return 0;
+        }
+        return start + frames * TimeUnit.SECONDS.toNanos(1) / rate;
+    }
+
+    private static float framesPerSecond(long frames, long nanos) {
+        return nanos == 0 ? 0 : frames * 1e9f / nanos;
+    }
+
+    public interface Listener {
+
+        /**
+         * Called from the replay thread when the recording ended or the replay was stopped.
+         */
+        void onReplayFinished(long frames, long elapsedNanos);
+
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.github.dawidkski.scanner.detection;
+
+import android.os.SystemClock;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Decides when to take a picture without the user touching the shutter. A picture is due when,
+ * over a sliding window of consecutive frames, the document hasn't moved, covers enough of the
+ * frame and the frame is sharp. Checks run from the cheapest one, sharpness (variance of
+ * the Laplacian) is measured only once the document is steady.
+ * <p>
+ * After firing the trigger waits until the document goes away or moves, so the same page isn't
+ * captured twice. Buffers are allocated up front, {@link #update(Mat, Quad)} doesn't allocate.
+ * Like the tracker it must be used from a single thread.
+ */
+public class AutoCapture {
+
+    public static final int DEFAULT_WINDOW = 8;
+    private static final float DEFAULT_MAX_MOTION = 0.01f;
+    private static final float DEFAULT_MIN_AREA_RATIO = 0.2f;
+    private static final double DEFAULT_MIN_SHARPNESS = 60;
+    private static final long DEFAULT_COOLDOWN_MS = 1500;
+
+    private final int window;
+    private final float[][] corners;
+    private final Mat laplacian = new Mat();
+    private final MatOfDouble mean = new MatOfDouble();
+    private final MatOfDouble stddev = new MatOfDouble();
+    private final double[] deviation = new double[1];
+
+    private volatile float maxMotion = DEFAULT_MAX_MOTION;
+    private volatile float minAreaRatio = DEFAULT_MIN_AREA_RATIO;
+    private volatile double minSharpness = DEFAULT_MIN_SHARPNESS;
+    private volatile long cooldownMs = DEFAULT_COOLDOWN_MS;
+
+    private int frames;
+    private int next;
+    private boolean armed = true;
+    private long lastFired;
+    private double lastSharpness;
+
+    public AutoCapture() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window number of consecutive frames the document has to stay steady on
+     */
+    public AutoCapture(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window needs at least one frame");
+        }
+        this.window = window;
+        this.corners = new float[window][2 * Quad.CORNERS];
+    }
+
+    /**
+     * @param maxMotion largest corner movement within the window, relative to the frame diagonal
+     */
+    public void setMaxMotion(float maxMotion) {
+        this.maxMotion = maxMotion;
+    }
+
+    /**
+     * @param minAreaRatio smallest share of the frame the document has to cover
+     */
+    public void setMinAreaRatio(float minAreaRatio) {
+        this.minAreaRatio = minAreaRatio;
+    }
+
+    /**
+     * @param minSharpness smallest variance of the Laplacian of the analysis frame,
+     *                     depends on its resolution
+     */
+    public void setMinSharpness(double minSharpness) {
+        this.minSharpness = minSharpness;
+    }
+
+    /**
+     * @param cooldownMs shortest time between two pictures
+     */
+    public void setCooldownMs(long cooldownMs) {
+        this.cooldownMs = cooldownMs;
+    }
+
+    /**
+     * @return sharpness measured on the latest steady frame.
+     */
+    public double getLastSharpness() {
+        return lastSharpness;
+    }
+
+    /**
+     * @param gray    analysis frame
+     * @param contour document contour in {@code gray} coordinates, null when there is none
+     * @return true when a picture should be taken now
+     */
+    public boolean update(Mat gray, Quad contour) {
+        if (contour == null) {
+            // Document is gone, the next one may be captured
+            reset();
+            return false;
+        }
+
+        for (int i = 0; i < 2 * Quad.CORNERS; i++) {
+            corners[next][i] = i % 2 == 0 ? contour.x(i / 2) : contour.y(i / 2);
+        }
+        next = (next + 1) % window;
+        frames = Math.min(frames + 1, window);
+
+        double diagonal = Math.hypot(gray.cols(), gray.rows());
+        if (motion() > maxMotion * diagonal) {
+            // Moving document is a new candidate
+            armed = true;
+            return false;
+        }
+        if (!armed || frames < window) {
+            return false;
+        }
+        if (contour.area() < minAreaRatio * gray.total()) {
+            return false;
+        }
+        if (SystemClock.elapsedRealtime() - lastFired < cooldownMs) {
+            return false;
+        }
+        lastSharpness = sharpness(gray);
+        if (lastSharpness < minSharpness) {
+            return false;
+        }
+
+        armed = false;
+        lastFired = SystemClock.elapsedRealtime();
+        return true;
+    }
+
+    public void reset() {
+        frames = 0;
+        next = 0;
+        armed = true;
+    }
+
+    public void release() {
+        laplacian.release();
+        mean.release();
+        stddev.release();
+    }
+
+    /**
+     * @return largest distance a corner travelled from its position in the window's oldest frame.
+     */
+    private double motion() {
+        int oldest = frames < window ? 0 : next;
+        double max = 0;
+        for (int f = 0; f < frames; f++) {
+            float[] frame = corners[(oldest + f) % window];
+            for (int i = 0; i < Quad.CORNERS; i++) {
+                double dx = frame[2 * i] - corners[oldest][2 * i];
+                double dy = frame[2 * i + 1] - corners[oldest][2 * i + 1];
+                max = Math.max(max, dx * dx + dy * dy);
+            }
+        }
+        return Math.sqrt(max);
+    }
+
+    private double sharpness(Mat gray) {
+        Imgproc.Laplacian(gray, laplacian, CvType.CV_16S);
+        Core.meanStdDev(laplacian, mean, stddev);
+        stddev.get(0, 0, deviation);
+        return deviation[0] * deviation[0];
+    }
+
+}
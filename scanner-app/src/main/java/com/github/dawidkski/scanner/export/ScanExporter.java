@@ -0,0 +1,205 @@
+package com.github.dawidkski.scanner.export;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import com.github.dawidkski.scanner.metrics.Metrics;
+import com.github.dawidkski.scanner.scan.FilterPipeline;
+import com.github.dawidkski.scanner.scan.ParallelWarp;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves scans into the shared Pictures collection and documents into the shared Documents
+ * directory, off the main thread. The entry is inserted as pending, the scan is streamed into it
+ * and it's published only once it's complete, a failed export removes it. Exports run one at
+ * a time on a thread of their own, they outlive the screen which started them.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+public class ScanExporter {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private ScanExporter() {
+    }
+
+    /**
+     * Filters and encodes a scan, the exporter takes its ownership.
+     *
+     * @param listener called on the main thread
+     */
+    public static void export(Context context, final Mat scan, final FilterPipeline.Filter filter,
+                              final ScanEncoder encoder, Listener listener) {
+        String mimeType = encoder.getFormat().getMimeType();
+        executor.execute(new ExportJob(context, mimeType, encoder.getFormat().getExtension(),
+                listener) {
+            @Override
+            void write(OutputStream out) throws IOException {
+                ParallelWarp warp = new ParallelWarp(ParallelWarp.defaultParallelism());
+                FilterPipeline pipeline = new FilterPipeline(scan, warp);
+                try {
+                    long size = encoder.encode(pipeline.apply(filter), out);
+                    Log.d(ScanExporter.class.getSimpleName(), "Encoded " + size
+                            + " bytes at quality " + encoder.getLastQuality());
+                } finally {
+                    pipeline.release();
+                    warp.shutdown();
+                }
+            }
+
+            @Override
+            void release() {
+                scan.release();
+            }
+        });
+    }
+
+    /**
+     * Copies an already encoded scan or document, the exporter deletes the file afterwards.
+     */
+    public static void exportFile(Context context, final File file, String mimeType,
+                                  String extension, Listener listener) {
+        executor.execute(new ExportJob(context, mimeType, extension, listener) {
+            @Override
+            void write(OutputStream out) throws IOException {
+                try (InputStream in = new FileInputStream(file)) {
+                    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+
+            @Override
+            void release() {
+                if (!file.delete()) {
+                    Log.w(ScanExporter.class.getSimpleName(), "Can't delete " + file);
+                }
+            }
+        });
+    }
+
+    private abstract static class ExportJob implements Runnable {
+
+        private final ContentResolver resolver;
+        private final String mimeType;
+        private final String extension;
+        private final Listener listener;
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        ExportJob(Context context, String mimeType, String extension, Listener listener) {
+            this.resolver = context.getApplicationContext().getContentResolver();
+            this.mimeType = mimeType;
+            this.extension = extension;
+            this.listener = listener;
+        }
+
+        abstract void write(OutputStream out) throws IOException;
+
+        abstract void release();
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            Uri uri = null;
+            boolean exported = false;
+            try {
+                uri = insertPending();
+                try (OutputStream out = resolver.openOutputStream(uri)) {
+                    if (out == null) {
+                        throw new IOException("Can't open " + uri);
+                    }
+                    write(out);
+                }
+                ContentValues published = new ContentValues();
+                published.put(MediaStore.MediaColumns.IS_PENDING, 0);
+                resolver.update(uri, published, null, null);
+                exported = true;
+                Metrics.record(Metrics.Timer.IMAGE_EXPORT, start);
+                Log.d(ScanExporter.class.getSimpleName(), "Exported " + uri + " in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (IOException | RuntimeException e) {
+                Log.e(ScanExporter.class.getSimpleName(), "Export failed", e);
+                if (uri != null) {
+                    resolver.delete(uri, null, null);
+                }
+            } finally {
+                release();
+            }
+            deliver(exported ? uri : null);
+        }
+
+        private Uri insertPending() throws IOException {
+            String name = "Scan_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US)
+                    .format(new Date()) + "." + extension;
+            boolean isImage = mimeType.startsWith("image/");
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.MediaColumns.RELATIVE_PATH,
+                    isImage ? Environment.DIRECTORY_PICTURES : Environment.DIRECTORY_DOCUMENTS);
+            values.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
+            values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+            values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+            Uri collection;
+            if (isImage) {
+                values.put(MediaStore.Images.Media.DATE_TAKEN, System.currentTimeMillis());
+                collection = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+            } else {
+                collection = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL);
+            }
+            Uri uri = resolver.insert(collection, values);
+            if (uri == null) {
+                throw new IOException("Can't insert " + name);
+            }
+            return uri;
+        }
+
+        private void deliver(final Uri uri) {
+            if (listener == null) {
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (uri != null) {
+                        listener.onExported(uri);
+                    } else {
+                        listener.onExportFailed();
+                    }
+                }
+            });
+        }
+
+    }
+
+    public interface Listener {
+
+        void onExported(Uri uri);
+
+        void onExportFailed();
+
+    }
+
+}
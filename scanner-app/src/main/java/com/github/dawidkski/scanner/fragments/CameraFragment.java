@@ -1,16 +1,24 @@
 package com.github.dawidkski.scanner.fragments;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.hardware.camera2.CameraManager;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.PowerManager;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.CompoundButton;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
 import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.RequiresApi;
 import androidx.appcompat.widget.SwitchCompat;
@@ -18,38 +26,81 @@ import androidx.fragment.app.Fragment;
 import androidx.navigation.NavController;
 import androidx.navigation.Navigation;
 
+import com.github.dawidkski.scanner.BuildConfig;
 import com.github.dawidkski.scanner.R;
 import com.github.dawidkski.scanner.camera.Camera;
 import com.github.dawidkski.scanner.camera.CameraView;
 import com.github.dawidkski.scanner.camera.CameraViewController;
 import com.github.dawidkski.scanner.camera.CameraViewListener;
 import com.github.dawidkski.scanner.camera.frame.CameraFrame;
+import com.github.dawidkski.scanner.camera.replay.ReplayFrameSource;
+import com.github.dawidkski.scanner.detection.AutoCapture;
+import com.github.dawidkski.scanner.detection.ContourTracker;
+import com.github.dawidkski.scanner.detection.DocumentDetector;
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.export.PdfWriter;
+import com.github.dawidkski.scanner.export.ScanExporter;
 import com.github.dawidkski.scanner.jni.Scanner;
+import com.github.dawidkski.scanner.metrics.Metrics;
+import com.github.dawidkski.scanner.scan.BatchScanner;
+import com.github.dawidkski.scanner.scan.StillImageStore;
 
 import org.jetbrains.annotations.NotNull;
 import org.opencv.core.Mat;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.Objects;
 
-public class CameraFragment extends Fragment implements CameraViewListener {
+public class CameraFragment extends Fragment implements CameraViewListener, BatchScanner.Listener {
 
     private static final int FRAME_PROCESS_DELAY = 500;
+    // Preview stream is already sized for analysis, the Y plane is used as it is
+    private static final int ANALYSIS_PYRAMID_LEVELS = 0;
+    // Contours less certain than this are not worth seeding the still image scan with
+    private static final float MIN_SEED_CONFIDENCE = 0.9f;
+    // Debug builds replay this recording from the app files instead of starting the camera
+    private static final String REPLAY_RECORDING = "replay.yuv";
+    // Multi-page documents are exported as PDF with pages at this resolution and JPEG quality
+    private static final int PDF_DPI = 200;
+    private static final int PDF_QUALITY = 80;
 
     private Camera camera;
     private CameraView cameraView;
     private CameraViewController cameraViewController;
+    private ReplayFrameSource replaySource;
+    private File recordingFile;
     private CameraManager cameraManager;
+    private PowerManager powerManager;
+    private PowerManager.OnThermalStatusChangedListener thermalListener;
+    private ContourTracker contourTracker;
+    private AutoCapture autoCapture;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable autoCaptureRunnable = new Runnable() {
+        @RequiresApi(api = Build.VERSION_CODES.R)
+        @Override
+        public void run() {
+            Log.d(CameraFragment.class.getSimpleName(), "Document is steady, capturing.");
+            capture();
+        }
+    };
 
     private ProgressBar progressBar;
+    private View batchPanel;
+    private TextView batchStatus;
+    private LinearLayout batchPages;
+    private BatchScanner batchScanner;
 
-    private File file;
     private SwitchCompat switchCompat;
+    private SwitchCompat multiPageSwitch;
+    private SwitchCompat autoCaptureSwitch;
+    private SwitchCompat zeroShutterLagSwitch;
+    private SwitchCompat inMemorySwitch;
     private NavController navController;
-    private boolean isFrameProcessingEnabled = false;
+    private volatile boolean isFrameProcessingEnabled = false;
 
     public CameraFragment() {
         // Required empty public constructor
@@ -68,7 +119,16 @@ public class CameraFragment extends Fragment implements CameraViewListener {
         progressBar = view.findViewById(R.id.progress_bar);
         camera = new Camera();
         cameraViewController = new CameraViewController(cameraView, camera);
+        File recording = new File(requireContext().getFilesDir(), REPLAY_RECORDING);
+        if (BuildConfig.DEBUG && recording.exists()) {
+            Log.i(this.getClass().getSimpleName(), "Replaying " + recording
+                    + " instead of the camera");
+            replaySource = new ReplayFrameSource(recording, camera.getFramePool());
+            replaySource.setLooping(true);
+            cameraViewController.setReplaySource(replaySource);
+        }
         cameraManager = (CameraManager) requireContext().getSystemService(Context.CAMERA_SERVICE);
+        powerManager = (PowerManager) requireContext().getSystemService(Context.POWER_SERVICE);
 
         view.findViewById(R.id.capture_button).setOnClickListener(new View.OnClickListener() {
             @RequiresApi(api = Build.VERSION_CODES.R)
@@ -76,13 +136,43 @@ public class CameraFragment extends Fragment implements CameraViewListener {
             public void onClick(View v) {
                 v.setEnabled(true);
                 Log.d(this.getClass().getSimpleName(), "Requesting image capture from UI.");
-                file = createFile(requireContext());
-                int rotation = requireContext().getDisplay().getRotation();
-                camera.takePicture(file, rotation);
-                progressBar.setVisibility(View.VISIBLE);
+                capture();
+            }
+        });
+        view.findViewById(R.id.capture_button).setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                toggleRecording();
+                return true;
             }
         });
         switchCompat = view.findViewById(R.id.hint_switch);
+        autoCaptureSwitch = view.findViewById(R.id.auto_capture_switch);
+        multiPageSwitch = view.findViewById(R.id.multi_page_switch);
+        zeroShutterLagSwitch = view.findViewById(R.id.zero_shutter_lag_switch);
+        inMemorySwitch = view.findViewById(R.id.in_memory_switch);
+        batchPanel = view.findViewById(R.id.batch_panel);
+        batchStatus = view.findViewById(R.id.batch_status);
+        batchPages = view.findViewById(R.id.batch_pages);
+        multiPageSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (isChecked) {
+                    startBatch();
+                } else {
+                    finishBatch();
+                }
+            }
+        });
+        CompoundButton.OnCheckedChangeListener captureSettingListener =
+                new CompoundButton.OnCheckedChangeListener() {
+                    @Override
+                    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                        restartCamera();
+                    }
+                };
+        zeroShutterLagSwitch.setOnCheckedChangeListener(captureSettingListener);
+        inMemorySwitch.setOnCheckedChangeListener(captureSettingListener);
     }
 
     @Override
@@ -92,6 +182,7 @@ public class CameraFragment extends Fragment implements CameraViewListener {
         navController = Navigation.findNavController(requireActivity(), R.id.fragment_container);
         cameraViewController.setCameraPermissionGranted();
         cameraViewController.setListener(this);
+        cameraViewController.enableLumaAnalysis(ANALYSIS_PYRAMID_LEVELS);
 
         // Let's wait some time before starting analyzing each frame with native code
         final Handler handler = new Handler(Objects.requireNonNull(Looper.myLooper()));
@@ -108,17 +199,75 @@ public class CameraFragment extends Fragment implements CameraViewListener {
         super.onResume();
         System.loadLibrary("opencv_java4");
         System.loadLibrary("jniscanner");
+        // Image of a capture whose scan screen never opened
+        StillImageStore.clear();
 
-        camera.open(cameraManager);
-        cameraViewController.enableView();
+        openCamera();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            registerThermalListener();
+        }
     }
 
     @Override
     public void onPause() {
         Log.d(this.getClass().getSimpleName(), "onPause");
         super.onPause();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && thermalListener != null) {
+            powerManager.removeThermalStatusListener(thermalListener);
+            thermalListener = null;
+        }
         if (cameraView != null)
             cameraViewController.disableView();
+        exportMetrics();
+    }
+
+    private void openCamera() {
+        // Zero shutter lag streams full resolution frames all the time, it's opt-in
+        camera.setZeroShutterLag(zeroShutterLagSwitch.isChecked());
+        // YUV stills are scanned in memory, skipping JPEG and the file system, it's opt-in
+        camera.setStillImageFormat(inMemorySwitch.isChecked()
+                ? ImageFormat.YUV_420_888 : ImageFormat.JPEG);
+        if (replaySource == null) {
+            camera.open(cameraManager);
+        }
+        cameraViewController.enableView();
+    }
+
+    /**
+     * Reopens the camera with the current capture settings, which are applied when it opens.
+     * Pictures still being taken are dropped.
+     */
+    private void restartCamera() {
+        if (!isResumed()) {
+            return;
+        }
+        cameraViewController.disableView();
+        progressBar.setVisibility(View.GONE);
+        openCamera();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private void registerThermalListener() {
+        thermalListener = new PowerManager.OnThermalStatusChangedListener() {
+            @Override
+            public void onThermalStatusChanged(int status) {
+                // Light throttling is tolerated, from moderate on analysis gets cheaper
+                // and it's the cheapest possible from emergency on
+                int light = PowerManager.THERMAL_STATUS_LIGHT;
+                float floor = Math.max(0, status - light)
+                        / (float) (PowerManager.THERMAL_STATUS_EMERGENCY - light);
+                cameraViewController.getGovernor().setThermalFloor(floor);
+            }
+        };
+        // Listener is called right away with the current status
+        powerManager.addThermalStatusListener(thermalListener);
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mainHandler.removeCallbacks(autoCaptureRunnable);
+        finishBatch();
     }
 
     @Override
@@ -133,17 +282,229 @@ public class CameraFragment extends Fragment implements CameraViewListener {
     public Mat onCameraFrame(CameraFrame inputFrame) {
         Mat frame = inputFrame.get();
         if (switchCompat.isChecked() && isFrameProcessingEnabled) {
+            long start = System.nanoTime();
             Scanner.drawContour(frame.getNativeObjAddr());
+            Metrics.record(Metrics.Timer.DRAW_CONTOUR, start);
         }
         return frame;
     }
 
     @Override
-    public void onPictureTaken() {
-        navController.navigate(CameraFragmentDirections.actionCameraToJpegViewer(file.getAbsolutePath()));
+    public Quad onAnalysisFrame(Mat gray) {
+        // Called only from the analysis thread, tracker is created there once OpenCV is loaded
+        if (contourTracker == null) {
+            contourTracker = new ContourTracker(new DocumentDetector());
+            autoCapture = new AutoCapture();
+        }
+        if (!switchCompat.isChecked() || !isFrameProcessingEnabled) {
+            contourTracker.reset();
+            autoCapture.reset();
+            return null;
+        }
+        Quad contour = contourTracker.track(gray);
+        if (autoCaptureSwitch.isChecked() && autoCapture.update(gray, contour)) {
+            mainHandler.post(autoCaptureRunnable);
+        }
+        return contour;
+    }
+
+    @Override
+    public void onPictureTaken(Mat image, File file, Quad contour) {
+        if (batchScanner != null) {
+            if (image != null) {
+                batchScanner.addPage(image, contour);
+            } else {
+                batchScanner.addPage(file.getAbsolutePath(), contour);
+            }
+            updateBatchStatus();
+            return;
+        }
+        CameraFragmentDirections.ActionCameraToJpegViewer action =
+                CameraFragmentDirections.actionCameraToJpegViewer()
+                        .setContour(contour == null ? null : contour.getPoints());
+        if (image != null) {
+            action.setImageKey(StillImageStore.put(image));
+        } else {
+            action.setImagePath(file.getAbsolutePath());
+        }
+        navController.navigate(action);
         progressBar.setVisibility(View.GONE);
     }
 
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private void capture() {
+        boolean multiPage = multiPageSwitch.isChecked();
+        if (multiPage && batchScanner != null && !batchScanner.canAccept()) {
+            Log.d(this.getClass().getSimpleName(), "Too many pages waiting for scan.");
+            return;
+        }
+        if (progressBar.getVisibility() == View.VISIBLE) {
+            Log.d(this.getClass().getSimpleName(), "Picture is already being taken.");
+            return;
+        }
+        File file = createFile(requireContext());
+        int rotation = requireContext().getDisplay().getRotation();
+        Quad contour = cameraViewController.getLatestContour();
+        if (contour != null && contour.getConfidence() < MIN_SEED_CONFIDENCE) {
+            contour = null;
+        }
+        if (camera.takePicture(file, rotation, contour)) {
+            // In multi-page mode the preview keeps running, pages fill in as they're scanned
+            if (!multiPage) {
+                progressBar.setVisibility(View.VISIBLE);
+            }
+        } else {
+            Log.d(this.getClass().getSimpleName(), "Camera is busy saving previous images.");
+        }
+    }
+
+    @Override
+    public void onPageFinished(BatchScanner.Page page) {
+        if (page.getThumbnail() != null) {
+            ImageView thumbnail = new ImageView(requireContext());
+            thumbnail.setAdjustViewBounds(true);
+            thumbnail.setImageBitmap(page.getThumbnail());
+            // Pages may finish out of order, keep the strip in capture order
+            int position = 0;
+            while (position < batchPages.getChildCount()
+                    && (int) batchPages.getChildAt(position).getTag() < page.getIndex()) {
+                position++;
+            }
+            thumbnail.setTag(page.getIndex());
+            batchPages.addView(thumbnail, position, new LinearLayout.LayoutParams(
+                    ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        }
+        updateBatchStatus();
+    }
+
+    private void startBatch() {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss", Locale.ENGLISH);
+        File outputDir = new File(requireContext().getFilesDir(), "BATCH_" + sdf.format(new Date()));
+        if (!outputDir.mkdirs()) {
+            Log.e(this.getClass().getSimpleName(), "Can't create " + outputDir);
+        }
+        batchScanner = new BatchScanner(outputDir, this);
+        batchScanner.setPdfOutput(new File(outputDir, "document.pdf"),
+                new PdfWriter.PageSettings(PDF_DPI, PDF_QUALITY),
+                new DocumentExport(requireContext().getApplicationContext(), outputDir));
+        batchPages.removeAllViews();
+        batchPanel.setVisibility(View.VISIBLE);
+        updateBatchStatus();
+    }
+
+    private void finishBatch() {
+        if (batchScanner == null) {
+            return;
+        }
+        // Thumbnails are recycled with the scanner, they must not be shown anymore
+        batchPages.removeAllViews();
+        batchPanel.setVisibility(View.GONE);
+        batchScanner.shutdown();
+        Log.d(this.getClass().getSimpleName(), "Batch finished, " + batchScanner.getScannedPages()
+                + " pages, " + batchScanner.getPagesPerMinute() + " pages/min");
+        batchScanner = null;
+    }
+
+    private void updateBatchStatus() {
+        if (batchScanner == null) {
+            return;
+        }
+        batchStatus.setText(getString(R.string.batch_status, batchScanner.getScannedPages(),
+                batchScanner.getPages().size(), batchScanner.getPagesPerMinute()));
+    }
+
+    /**
+     * Starts or finishes recording of preview frames, e.g. to reproduce poor detection offline.
+     */
+    private void toggleRecording() {
+        if (cameraViewController.isRecording()) {
+            cameraViewController.stopRecording();
+            Toast.makeText(getContext(), getString(R.string.recording_saved, recordingFile),
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+        File dir = new File(requireContext().getFilesDir(), "recordings");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(this.getClass().getSimpleName(), "Can't create " + dir);
+            return;
+        }
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss", Locale.ENGLISH);
+        recordingFile = new File(dir, "REC_" + sdf.format(new Date()) + ".yuv");
+        cameraViewController.startRecording(recordingFile);
+        Toast.makeText(getContext(), R.string.recording_started, Toast.LENGTH_SHORT).show();
+    }
+
+    private void exportMetrics() {
+        Metrics.dump();
+        File dir = new File(requireContext().getFilesDir(), "metrics");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(this.getClass().getSimpleName(), "Can't create " + dir);
+            return;
+        }
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss", Locale.ENGLISH);
+        File file = new File(dir, "METRICS_" + sdf.format(new Date()) + ".json");
+        String build = BuildConfig.VERSION_NAME + " (" + BuildConfig.VERSION_CODE + ") "
+                + Build.MANUFACTURER + " " + Build.MODEL + " API " + Build.VERSION.SDK_INT;
+        try {
+            Metrics.writeJson(file, build);
+            Log.d(this.getClass().getSimpleName(), "Metrics written to " + file);
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), "Can't write metrics", e);
+        }
+        // Every export covers a single camera session
+        Metrics.reset();
+    }
+
+    /**
+     * Copies a finished document to the shared Documents, it outlives the fragment. The batch
+     * directory is deleted afterwards, the exporter deletes the document itself.
+     */
+    private static class DocumentExport implements BatchScanner.DocumentListener,
+            ScanExporter.Listener {
+
+        private final Context context;
+        private final File batchDir;
+
+        DocumentExport(Context context, File batchDir) {
+            this.context = context;
+            this.batchDir = batchDir;
+        }
+
+        @Override
+        public void onDocumentFinished(File pdf, int pages) {
+            Log.d(CameraFragment.class.getSimpleName(), pages + " pages written to " + pdf);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                ScanExporter.exportFile(context, pdf, "application/pdf", "pdf", this);
+                return;
+            }
+            // Shared Documents can't be written to before Q, nothing could open the document
+            Log.w(CameraFragment.class.getSimpleName(), "Can't export " + pdf + " before Q");
+            if (!pdf.delete()) {
+                Log.w(CameraFragment.class.getSimpleName(), "Can't delete " + pdf);
+            }
+            deleteBatchDir();
+        }
+
+        @Override
+        public void onExported(Uri uri) {
+            Toast.makeText(context, R.string.document_saved, Toast.LENGTH_SHORT).show();
+            deleteBatchDir();
+        }
+
+        @Override
+        public void onExportFailed() {
+            Toast.makeText(context, R.string.document_save_failed, Toast.LENGTH_LONG).show();
+            deleteBatchDir();
+        }
+
+        private void deleteBatchDir() {
+            if (!batchDir.delete()) {
+                Log.w(CameraFragment.class.getSimpleName(), "Can't delete " + batchDir);
+            }
+        }
+
+    }
+
     private File createFile(Context context) {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS", Locale.ENGLISH);
         return new File(context.getFilesDir(), "IMG_" + sdf.format(new Date()) + "." + "jpg");
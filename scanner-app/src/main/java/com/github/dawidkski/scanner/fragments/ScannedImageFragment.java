@@ -1,52 +1,88 @@
 package com.github.dawidkski.scanner.fragments;
 
-import android.content.ContentResolver;
-import android.content.ContentValues;
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Environment;
-import android.provider.MediaStore;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
+import android.widget.RadioGroup;
+import android.widget.Toast;
 
 import androidx.annotation.RequiresApi;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModel;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.navigation.Navigation;
 
 import com.github.dawidkski.scanner.R;
-import com.github.dawidkski.scanner.jni.Scanner;
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.export.ScanEncoder;
+import com.github.dawidkski.scanner.export.ScanExporter;
+import com.github.dawidkski.scanner.scan.FilterPipeline;
+import com.github.dawidkski.scanner.scan.ParallelWarp;
+import com.github.dawidkski.scanner.scan.ScanJob;
+import com.github.dawidkski.scanner.scan.StillImageStore;
 
 import org.jetbrains.annotations.NotNull;
 import org.opencv.android.Utils;
 import org.opencv.core.Mat;
-import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.util.Objects;
+import java.io.File;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import static android.provider.MediaStore.Images.Media.TITLE;
-import static android.provider.MediaStore.Images.Media.DISPLAY_NAME;
-import static android.provider.MediaStore.Images.Media.DESCRIPTION;
-import static android.provider.MediaStore.Images.Media.MIME_TYPE;
-import static android.provider.MediaStore.Images.Media.IS_PENDING;
-import static android.provider.MediaStore.Images.Media.DATE_ADDED;
-import static android.provider.MediaStore.Images.Media.DATE_TAKEN;
-
-public class ScannedImageFragment extends Fragment {
+public class ScannedImageFragment extends Fragment implements ScanJob.Listener {
 
     private static final String ARG_IMAGE_PATH = "imagePath";
+    private static final String ARG_IMAGE_KEY = "imageKey";
+    private static final String ARG_CONTOUR = "contour";
+    private static final ScanEncoder.Format EXPORT_FORMAT = ScanEncoder.Format.JPEG;
+    private static final int EXPORT_QUALITY = 90;
+    // Quality is lowered for scans which would be bigger
+    private static final long EXPORT_MAX_BYTES = 4 * 1024 * 1024;
+    // Workers the full resolution warp is split among, 0 for one per core
+    private static final int WARP_PARALLELISM = 0;
 
     private String imagePath;
-    private Mat rawImage;
+    private String imageKey;
+    private float[] contour;
+    private CapturedImage capturedImage;
     private Mat scannedImage;
+    // Result of a tiled scan, there is no scannedImage then
+    private File scannedFile;
     private Bitmap scannedBitmap;
+    private Bitmap previewBitmap;
+    private FilterPipeline.Filter filter = FilterPipeline.Filter.ORIGINAL;
+    // Filters are previewed on a copy of the scan downscaled to the screen
+    private FilterPreview filterPreview;
+    private final Map<FilterPipeline.Filter, Bitmap> filteredBitmaps =
+            new EnumMap<>(FilterPipeline.Filter.class);
+    // Filters being computed on the scan executor
+    private final Set<FilterPipeline.Filter> pendingFilters =
+            EnumSet.noneOf(FilterPipeline.Filter.class);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private ImageView imageView;
+    private RadioGroup filterGroup;
+    private ProgressBar progressBar;
+    private View saveButton;
+    private ExecutorService scanExecutor;
+    private ParallelWarp parallelWarp;
+    private ScanJob scanJob;
 
     public ScannedImageFragment() {
         // Required empty public constructor
@@ -57,7 +93,17 @@ public class ScannedImageFragment extends Fragment {
         super.onCreate(savedInstanceState);
         if (getArguments() != null) {
             imagePath = getArguments().getString(ARG_IMAGE_PATH);
+            imageKey = getArguments().getString(ARG_IMAGE_KEY);
+            contour = getArguments().getFloatArray(ARG_CONTOUR);
+        }
+        capturedImage = new ViewModelProvider(this).get(CapturedImage.class);
+        if (imageKey != null && capturedImage.isEmpty()) {
+            // Taken once, the model keeps it for the screen recreated on rotation
+            capturedImage.set(StillImageStore.take(imageKey));
         }
+        scanExecutor = Executors.newSingleThreadExecutor();
+        parallelWarp = new ParallelWarp(WARP_PARALLELISM > 0
+                ? WARP_PARALLELISM : ParallelWarp.defaultParallelism());
     }
 
     @Override
@@ -70,7 +116,17 @@ public class ScannedImageFragment extends Fragment {
     public void onViewCreated(@NotNull View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         imageView = view.findViewById(R.id.scanned_image_view);
-        view.findViewById(R.id.save_button).setOnClickListener(new View.OnClickListener() {
+        progressBar = view.findViewById(R.id.scan_progress_bar);
+        saveButton = view.findViewById(R.id.save_button);
+        saveButton.setEnabled(false);
+        filterGroup = view.findViewById(R.id.filter_group);
+        filterGroup.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                onFilterSelected(filterOf(checkedId));
+            }
+        });
+        saveButton.setOnClickListener(new View.OnClickListener() {
             @RequiresApi(api = Build.VERSION_CODES.Q)
             @Override
             public void onClick(View v) {
@@ -84,27 +140,164 @@ public class ScannedImageFragment extends Fragment {
             }
         });
 
-        rawImage = loadImage(imagePath);
-        scannedImage = scanImage(rawImage);
-        displayImage(scannedImage);
+        Quad seed = contour == null ? null : new Quad(contour);
+        Mat image = capturedImage.share();
+        if (image != null) {
+            scanJob = new ScanJob(image, seed, this);
+        } else if (imagePath != null) {
+            scanJob = new ScanJob(imagePath, seed, this);
+        } else {
+            // Image captured in memory didn't survive the process, there's nothing to scan
+            Log.w(this.getClass().getSimpleName(), "Captured image " + imageKey + " is gone");
+            view.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isAdded()) {
+                        onCloseButton();
+                    }
+                }
+            });
+            return;
+        }
+        progressBar.setVisibility(View.VISIBLE);
+        scanJob.setTiledOutputDir(requireContext().getCacheDir());
+        scanJob.setParallelWarp(parallelWarp);
+        scanExecutor.execute(scanJob);
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // Leaving the screen aborts the scan, results which are still on their way are dropped
+        if (scanJob != null) {
+            scanJob.cancel();
+            scanJob = null;
+        }
+        releaseAll();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        scanExecutor.shutdownNow();
+        parallelWarp.shutdown();
+    }
+
+    @Override
+    public void onPreviewScanned(Mat scan, Bitmap bitmap) {
+        scan.release();
+        previewBitmap = bitmap;
+        imageView.setImageBitmap(bitmap);
+    }
+
+    @Override
+    public void onScanned(Mat scan, Bitmap bitmap) {
+        scannedImage = scan;
+        showScanned(bitmap);
+        // Filtering a tiled scan would need its full resolution in memory, it's left as it is
+        filterGroup.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    public void onScannedToFile(File file, Bitmap bitmap) {
+        scannedFile = file;
+        showScanned(bitmap);
     }
 
-    private Mat scanImage(Mat image) {
-        Mat scan = new Mat();
-        Scanner.softwareScanner(image.getNativeObjAddr(), scan.getNativeObjAddr());
-        return scan;
+    private void showScanned(Bitmap bitmap) {
+        scannedBitmap = bitmap;
+        imageView.setImageBitmap(bitmap);
+        if (previewBitmap != null) {
+            previewBitmap.recycle();
+            previewBitmap = null;
+        }
+        progressBar.setVisibility(View.GONE);
+        saveButton.setEnabled(true);
     }
 
-    private Mat loadImage(String imagePath) {
-        Mat rgbImage = new Mat();
-        Imgproc.cvtColor(Imgcodecs.imread(imagePath), rgbImage, Imgproc.COLOR_BGR2RGB);
-        return rgbImage;
+    private static FilterPipeline.Filter filterOf(int buttonId) {
+        if (buttonId == R.id.filter_grayscale) {
+            return FilterPipeline.Filter.GRAYSCALE;
+        } else if (buttonId == R.id.filter_black_and_white) {
+            return FilterPipeline.Filter.BLACK_AND_WHITE;
+        } else if (buttonId == R.id.filter_color_boost) {
+            return FilterPipeline.Filter.COLOR_BOOST;
+        }
+        return FilterPipeline.Filter.ORIGINAL;
     }
 
-    private void displayImage(Mat image) {
-        scannedBitmap = Bitmap.createBitmap(image.cols(), image.rows(), Bitmap.Config.RGB_565);
-        Utils.matToBitmap(image, scannedBitmap);
-        imageView.setImageBitmap(scannedBitmap);
+    /**
+     * Shows the filter at screen resolution. Filters are computed on the scan executor and
+     * cached, so switching between filters computes each of them once.
+     */
+    private void onFilterSelected(FilterPipeline.Filter selected) {
+        filter = selected;
+        if (scannedImage == null) {
+            return;
+        }
+        Bitmap bitmap = selected == FilterPipeline.Filter.ORIGINAL
+                ? scannedBitmap : filteredBitmaps.get(selected);
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+            progressBar.setVisibility(View.GONE);
+            return;
+        }
+        progressBar.setVisibility(View.VISIBLE);
+        if (!pendingFilters.add(selected)) {
+            return;
+        }
+        if (filterPreview == null) {
+            int screenSide = Math.max(getResources().getDisplayMetrics().widthPixels,
+                    getResources().getDisplayMetrics().heightPixels);
+            filterPreview = new FilterPreview(scannedImage.submat(0, scannedImage.rows(), 0,
+                    scannedImage.cols()), screenSide, parallelWarp);
+        }
+        final FilterPreview preview = filterPreview;
+        final FilterPipeline.Filter computed = selected;
+        scanExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap rendered = null;
+                try {
+                    rendered = preview.render(computed);
+                } catch (CancellationException e) {
+                    return;
+                } catch (IllegalStateException e) {
+                    Log.e(ScannedImageFragment.class.getSimpleName(), "Filter failed", e);
+                }
+                final Bitmap filtered = rendered;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFilterRendered(preview, computed, filtered);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @param bitmap null when the filter failed or the preview was released
+     */
+    private void onFilterRendered(FilterPreview preview, FilterPipeline.Filter rendered,
+                                  Bitmap bitmap) {
+        if (preview != filterPreview) {
+            // Scan was released or the screen left in the meantime
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            return;
+        }
+        pendingFilters.remove(rendered);
+        if (bitmap != null) {
+            filteredBitmaps.put(rendered, bitmap);
+        }
+        if (filter == rendered) {
+            if (bitmap != null) {
+                imageView.setImageBitmap(bitmap);
+            }
+            progressBar.setVisibility(View.GONE);
+        }
     }
 
     private void onCloseButton() {
@@ -116,39 +309,195 @@ public class ScannedImageFragment extends Fragment {
 
     @RequiresApi(api = Build.VERSION_CODES.Q)
     private void onSaveButton() {
+        // Exporter takes over the result, full resolution is filtered only while it's exported
+        ScanExporter.Listener listener = new ExportToast(requireContext().getApplicationContext());
+        if (scannedFile != null) {
+            ScanExporter.exportFile(requireContext(), scannedFile, "image/png", "png", listener);
+            scannedFile = null;
+        } else if (scannedImage != null) {
+            ScanExporter.export(requireContext(), scannedImage, filter,
+                    new ScanEncoder(EXPORT_FORMAT, EXPORT_QUALITY, EXPORT_MAX_BYTES), listener);
+            scannedImage = null;
+        }
         releaseAll();
-        saveImage(scannedBitmap);
         Navigation.findNavController(requireActivity(), R.id.fragment_container).navigate(
                 ScannedImageFragmentDirections.actionScannedImageViewToCameraFragment()
                         .setIsScanAccepted(true));
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.Q)
-    private void saveImage(Bitmap bitmap) {
-        ContentValues values = new ContentValues();
-        values.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_PICTURES);
-        values.put(TITLE, "title");
-        values.put(DISPLAY_NAME, "display name");
-        values.put(DESCRIPTION, "description");
-        values.put(MIME_TYPE, "image/jpeg");
-        values.put(IS_PENDING, 1);
-        values.put(DATE_ADDED, System.currentTimeMillis());
-        values.put(DATE_TAKEN, System.currentTimeMillis());
+    /**
+     * Keeps an image captured in memory while the screen is recreated, e.g. on rotation.
+     * Scan jobs get headers sharing its pixels, so the model can be cleared while a cancelled
+     * job still reads them.
+     */
+    public static class CapturedImage extends ViewModel {
+
+        private Mat image;
 
-        ContentResolver resolver = requireContext().getContentResolver();
+        boolean isEmpty() {
+            return image == null;
+        }
+
+        void set(Mat image) {
+            this.image = image;
+        }
+
+        /**
+         * @return header of the image owned by the caller, or null when there's no image.
+         */
+        Mat share() {
+            return image == null ? null : image.submat(0, image.rows(), 0, image.cols());
+        }
+
+        @Override
+        protected void onCleared() {
+            if (image != null) {
+                image.release();
+                image = null;
+            }
+        }
+
+    }
+
+    /**
+     * Screen sized copy of a scan and its filters, rendered on the scan executor. It can be
+     * released from the main thread while a filter is rendered, the render frees it then.
+     */
+    private static class FilterPreview {
+
+        private final int screenSide;
+        private final ParallelWarp warp;
+        // Header sharing pixels of the full resolution scan until it's downscaled
+        private Mat scan;
+        private Mat screenImage;
+        private FilterPipeline pipeline;
+        private boolean rendering;
+        private boolean released;
+
+        FilterPreview(Mat scan, int screenSide, ParallelWarp warp) {
+            this.scan = scan;
+            this.screenSide = screenSide;
+            this.warp = warp;
+        }
+
+        /**
+         * @return filtered bitmap owned by the caller, null when the preview is released.
+         * @throws CancellationException when the warp is shut down
+         */
+        Bitmap render(FilterPipeline.Filter filter) {
+            synchronized (this) {
+                if (released) {
+                    return null;
+                }
+                rendering = true;
+            }
+            try {
+                if (pipeline == null) {
+                    double factor = Math.min(1,
+                            (double) screenSide / Math.max(scan.cols(), scan.rows()));
+                    screenImage = new Mat();
+                    Imgproc.resize(scan, screenImage, new Size(), factor, factor,
+                            Imgproc.INTER_AREA);
+                    scan.release();
+                    scan = null;
+                    pipeline = new FilterPipeline(screenImage, warp);
+                }
+                Mat filtered = pipeline.apply(filter);
+                Bitmap bitmap = Bitmap.createBitmap(filtered.cols(), filtered.rows(),
+                        Bitmap.Config.ARGB_8888);
+                Utils.matToBitmap(filtered, bitmap);
+                return bitmap;
+            } finally {
+                boolean free;
+                synchronized (this) {
+                    rendering = false;
+                    free = released;
+                }
+                if (free) {
+                    free();
+                }
+            }
+        }
+
+        void release() {
+            synchronized (this) {
+                released = true;
+                if (rendering) {
+                    return;
+                }
+            }
+            free();
+        }
 
-        Uri url = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        private void free() {
+            if (pipeline != null) {
+                pipeline.release();
+                pipeline = null;
+            }
+            if (screenImage != null) {
+                screenImage.release();
+                screenImage = null;
+            }
+            if (scan != null) {
+                scan.release();
+                scan = null;
+            }
+        }
+
+    }
 
-        try (OutputStream outputStream = resolver.openOutputStream(Objects.requireNonNull(url))) {
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static class ExportToast implements ScanExporter.Listener {
+
+        private final Context context;
+
+        ExportToast(Context context) {
+            this.context = context;
         }
+
+        @Override
+        public void onExported(Uri uri) {
+            Toast.makeText(context, R.string.scan_saved, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onExportFailed() {
+            Toast.makeText(context, R.string.scan_save_failed, Toast.LENGTH_LONG).show();
+        }
+
     }
 
     private void releaseAll() {
-        rawImage.release();
-        scannedImage.release();
+        if (filterPreview != null) {
+            filterPreview.release();
+            filterPreview = null;
+        }
+        pendingFilters.clear();
+        // View must not draw any of the bitmaps once they're recycled
+        if (imageView != null) {
+            imageView.setImageDrawable(null);
+        }
+        for (Bitmap bitmap : filteredBitmaps.values()) {
+            bitmap.recycle();
+        }
+        filteredBitmaps.clear();
+        if (scannedBitmap != null) {
+            scannedBitmap.recycle();
+            scannedBitmap = null;
+        }
+        if (previewBitmap != null) {
+            previewBitmap.recycle();
+            previewBitmap = null;
+        }
+        if (scannedImage != null) {
+            scannedImage.release();
+            scannedImage = null;
+        }
+        if (scannedFile != null) {
+            if (!scannedFile.delete()) {
+                scannedFile.deleteOnExit();
+            }
+            scannedFile = null;
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.github.dawidkski.scanner.metrics;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process wide registry of hot path timings and counters. Every {@link Timer} has its own
+ * {@link LatencyHistogram}, so recording is a few atomic increments without any allocation
+ * or lookup:
+ * <pre>
+ *     long start = System.nanoTime();
+ *     ...
+ *     Metrics.record(Metrics.Timer.FRAME_CONVERT, start);
+ * </pre>
+ * Collected values can be dumped to logcat or exported as JSON to compare builds.
+ */
+public class Metrics {
+
+    public enum Timer {
+        /** YUV to RGBA conversion of a preview frame */
+        FRAME_CONVERT,
+        /** YUV to RGBA conversion of a still image captured in memory */
+        STILL_CONVERT,
+        /** Native contour drawing into a preview frame */
+        DRAW_CONTOUR,
+        /** Copying a frame into the preview bitmap */
+        MAT_TO_BITMAP,
+        /** Waiting for the preview surface canvas */
+        CANVAS_LOCK,
+        /** Posting the preview surface canvas */
+        CANVAS_POST,
+        /** Writing a still image to a file */
+        IMAGE_SAVE,
+        /** Filtering, encoding and writing a scan to the gallery */
+        IMAGE_EXPORT,
+        /** Native scan of a captured image */
+        SOFTWARE_SCANNER,
+        /** Strip by strip warp and encoding of a big image */
+        TILED_SCAN,
+        /** Wall time of a warp with enhancement split into bands on workers */
+        PARALLEL_WARP,
+        /** Time workers spent on bands of a parallel warp, summed over all of them */
+        PARALLEL_WARP_BUSY
+    }
+
+    public enum Counter {
+        /** Preview frames replaced by newer ones before they were acquired */
+        FRAMES_DROPPED,
+        /** Preview frames acquired */
+        FRAMES_ACQUIRED,
+        /** Preview frames written to a recording */
+        FRAMES_RECORDED,
+        /** Preview frames left out of a recording because the writer was behind */
+        FRAMES_NOT_RECORDED
+    }
+
+    private static final LatencyHistogram[] histograms =
+            new LatencyHistogram[Timer.values().length];
+    private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    static {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} taken when the measured section started
+     */
+    public static void record(Timer timer, long startNanos) {
+        histograms[timer.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public static void recordNanos(Timer timer, long nanos) {
+        histograms[timer.ordinal()].record(nanos);
+    }
+
+    public static void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public static LatencyHistogram get(Timer timer) {
+        return histograms[timer.ordinal()];
+    }
+
+    public static long get(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * @return how many times faster parallel warps were than the same work done on one core,
+     * 0 before the first one.
+     */
+    public static double getParallelWarpSpeedup() {
+        LatencyHistogram elapsed = get(Timer.PARALLEL_WARP);
+        LatencyHistogram busy = get(Timer.PARALLEL_WARP_BUSY);
+        if (elapsed.getCount() == 0 || elapsed.getMeanMs() == 0) {
+            return 0;
+        }
+        return busy.getMeanMs() * busy.getCount() / (elapsed.getMeanMs() * elapsed.getCount());
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    /**
+     * Logs a line per timer and counter which has recorded anything.
+     */
+    public static void dump() {
+        for (Timer timer : Timer.values()) {
+            LatencyHistogram histogram = get(timer);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            Log.i(Metrics.class.getSimpleName(), String.format(Locale.US,
+                    "%s: n=%d p50=%.2f p95=%.2f p99=%.2f max=%.2f mean=%.2f ms", timer,
+                    histogram.getCount(), histogram.getPercentileMs(50),
+                    histogram.getPercentileMs(95), histogram.getPercentileMs(99),
+                    histogram.getMaxMs(), histogram.getMeanMs()));
+        }
+        for (Counter counter : Counter.values()) {
+            Log.i(Metrics.class.getSimpleName(), counter + ": " + get(counter));
+        }
+        double speedup = getParallelWarpSpeedup();
+        if (speedup > 0) {
+            Log.i(Metrics.class.getSimpleName(), String.format(Locale.US,
+                    "Parallel warp speedup: %.2fx", speedup));
+        }
+    }
+
+    /**
+     * @param build identifies the build and device the values come from
+     */
+    public static String toJson(String build) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"build\":\"").append(build.replace("\"", "\\\""))
+                .append("\",\"timestamp\":").append(System.currentTimeMillis())
+                .append(",\"timers\":{");
+        for (Timer timer : Timer.values()) {
+            LatencyHistogram histogram = get(timer);
+            if (timer.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "\"%s\":{\"count\":%d,\"p50_ms\":%.3f,\"p95_ms\":%.3f,\"p99_ms\":%.3f,"
+                            + "\"max_ms\":%.3f,\"mean_ms\":%.3f}",
+                    timer, histogram.getCount(), histogram.getPercentileMs(50),
+                    histogram.getPercentileMs(95), histogram.getPercentileMs(99),
+                    histogram.getMaxMs(), histogram.getMeanMs()));
+        }
+        json.append("},\"counters\":{");
+        for (Counter counter : Counter.values()) {
+            if (counter.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(counter).append("\":").append(get(counter));
+        }
+        json.append(String.format(Locale.US, "},\"parallel_warp_speedup\":%.3f",
+                getParallelWarpSpeedup()));
+        return json.append('}').toString();
+    }
+
+    public static void writeJson(File file, String build) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8)) {
+            writer.write(toJson(build));
+        }
+    }
+
+}
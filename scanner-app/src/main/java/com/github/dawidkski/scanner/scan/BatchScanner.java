@@ -0,0 +1,491 @@
+package com.github.dawidkski.scanner.scan;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.export.PdfWriter;
+import com.github.dawidkski.scanner.export.ScanEncoder;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans pages of a multi-page document on a pool of workers while the camera keeps capturing.
+ * Each scanned page is written to the output directory right away and only its thumbnail is kept
+ * in memory, so the number of pages isn't limited by the heap. Captured images waiting for
+ * a worker are the only full resolution Mats held, their number is bounded.
+ * <p>
+ * Pages are added and listener is called on the main thread.
+ * <p>
+ * With a PDF output set, pages are appended to the document in capture order as soon as they
+ * and all pages before them are scanned. Their JPEG files are copied into the document as they
+ * are, pages with more pixels than the PDF resolution needs get a downscaled JPEG of their own
+ * from the worker. Nothing is decoded again and memory doesn't grow with the document.
+ * Once the document is finished the page files are deleted, the document belongs to the
+ * {@link DocumentListener}. When it has no pages or can't be written, the output directory is
+ * deleted as a whole.
+ */
+public class BatchScanner {
+
+    // Longer side of the page thumbnail
+    private static final int THUMBNAIL_MAX_SIDE = 256;
+    private static final int PAGE_QUALITY = 90;
+    // One core is left to the camera and preview analysis
+    private static final int MAX_WORKERS = 3;
+    // Captured images waiting for a worker, each holds a full resolution image
+    private static final int MAX_WAITING_PAGES = 2;
+
+    private final File outputDir;
+    private final Listener listener;
+    private final int workers;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Page> pages = new ArrayList<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private boolean shutdown;
+    private File pdfFile;
+    private PdfWriter.PageSettings pdfSettings;
+    private DocumentListener documentListener;
+    private ExecutorService pdfExecutor;
+    // Used only on the PDF executor
+    private PdfWriter pdfWriter;
+    private boolean pdfFailed;
+    // First page not handed over to the PDF executor yet
+    private int nextPdfPage;
+    private long firstPageTime;
+    private long lastScanTime;
+    private int scannedPages;
+
+    public BatchScanner(File outputDir, Listener listener) {
+        this.outputDir = outputDir;
+        this.listener = listener;
+        this.workers = Math.max(1, Math.min(MAX_WORKERS,
+                Runtime.getRuntime().availableProcessors() - 1));
+        this.executor = Executors.newFixedThreadPool(workers);
+    }
+
+    /**
+     * Makes a PDF document of the pages, must be set before the first page is added.
+     *
+     * @param settings DPI of pages without settings of their own, and JPEG quality of those
+     *                 which are downscaled to it
+     * @param listener called on the main thread once the document is finished by
+     *                 {@link #shutdown()}, unless it has no pages
+     */
+    public void setPdfOutput(File pdf, PdfWriter.PageSettings settings,
+                             DocumentListener listener) {
+        this.pdfFile = pdf;
+        this.pdfSettings = settings;
+        this.documentListener = listener;
+        this.pdfExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * @return false when too many pages are already waiting, caller should hold off capturing.
+     */
+    public boolean canAccept() {
+        return pending.get() < workers + MAX_WAITING_PAGES;
+    }
+
+    /**
+     * Queues a captured image for scanning, the scanner takes its ownership.
+     *
+     * @param contour document contour in image coordinates or null
+     */
+    public Page addPage(Mat image, Quad contour) {
+        return enqueue(null, image, contour);
+    }
+
+    public Page addPage(String imagePath, Quad contour) {
+        return enqueue(imagePath, null, contour);
+    }
+
+    /**
+     * @return pages in the capture order, including the ones still being scanned.
+     */
+    public List<Page> getPages() {
+        return Collections.unmodifiableList(pages);
+    }
+
+    public int getScannedPages() {
+        return scannedPages;
+    }
+
+    /**
+     * @return pages scanned per minute, measured from the first capture to the latest finished scan.
+     */
+    public float getPagesPerMinute() {
+        long elapsed = lastScanTime - firstPageTime;
+        if (scannedPages == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return scannedPages * 60_000f / elapsed;
+    }
+
+    /**
+     * Stops accepting pages and recycles thumbnails, the listener isn't called anymore.
+     * Pages already captured are still scanned and their files stay in the output directory.
+     * The PDF document is finished once the last of them is appended.
+     */
+    public void shutdown() {
+        shutdown = true;
+        executor.shutdown();
+        if (pdfExecutor != null) {
+            appendFinishedPages();
+        }
+        for (Page page : pages) {
+            if (page.thumbnail != null) {
+                page.thumbnail.recycle();
+                page.thumbnail = null;
+            }
+        }
+    }
+
+    private Page enqueue(String imagePath, Mat image, Quad contour) {
+        if (pages.isEmpty()) {
+            firstPageTime = SystemClock.elapsedRealtime();
+        }
+        Page page = new Page(pages.size(), contour);
+        pages.add(page);
+        pending.incrementAndGet();
+        executor.execute(new PageJob(page, imagePath, image));
+        Log.d(this.getClass().getSimpleName(), "Page " + page.index + " queued, "
+                + pending.get() + " pending");
+        return page;
+    }
+
+    /**
+     * Hands pages over to the PDF executor in capture order, failed pages are left out.
+     * After shutdown, the document is finished once the last page is handed over.
+     */
+    private void appendFinishedPages() {
+        while (nextPdfPage < pages.size()
+                && pages.get(nextPdfPage).state != Page.State.SCANNING) {
+            final Page page = pages.get(nextPdfPage++);
+            if (page.state != Page.State.SCANNED) {
+                continue;
+            }
+            final PdfImage image = page.pdfImage;
+            page.pdfImage = null;
+            pdfExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    appendPage(page.index, image);
+                }
+            });
+        }
+        if (shutdown && nextPdfPage == pages.size() && !pdfExecutor.isShutdown()) {
+            pdfExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    finishPdf();
+                }
+            });
+            pdfExecutor.shutdown();
+        }
+    }
+
+    private void appendPage(int index, PdfImage image) {
+        if (pdfFailed) {
+            image.release();
+            return;
+        }
+        try (InputStream in = new FileInputStream(image.file)) {
+            if (pdfWriter == null) {
+                pdfWriter = new PdfWriter(new BufferedOutputStream(new FileOutputStream(pdfFile)));
+            }
+            pdfWriter.addJpegPage(in, image.width, image.height, image.channels);
+            Log.d(BatchScanner.class.getSimpleName(), "Page " + index + " added to " + pdfFile);
+        } catch (IOException | RuntimeException e) {
+            Log.e(BatchScanner.class.getSimpleName(), "Can't add page " + index + " to PDF", e);
+            pdfFailed = true;
+        } finally {
+            image.release();
+        }
+    }
+
+    private void finishPdf() {
+        // Every page is in the document or failed by now, no worker writes into the directory
+        deletePageFiles();
+        if (pdfWriter == null) {
+            delete(outputDir);
+            return;
+        }
+        final int pageCount = pdfWriter.getPageCount();
+        try {
+            pdfWriter.close();
+        } catch (IOException e) {
+            Log.e(BatchScanner.class.getSimpleName(), "Can't finish " + pdfFile, e);
+            pdfFailed = true;
+        }
+        if (pdfFailed) {
+            delete(pdfFile);
+            delete(outputDir);
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                documentListener.onDocumentFinished(pdfFile, pageCount);
+            }
+        });
+    }
+
+    private void deletePageFiles() {
+        File[] files = outputDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.equals(pdfFile)) {
+                delete(file);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(BatchScanner.class.getSimpleName(), "Can't delete " + file);
+        }
+    }
+
+    private class PageJob implements Runnable {
+
+        private final Page page;
+        private final String imagePath;
+        private Mat image;
+
+        PageJob(Page page, String imagePath, Mat image) {
+            this.page = page;
+            this.imagePath = imagePath;
+            this.image = image;
+        }
+
+        @Override
+        public void run() {
+            long start = SystemClock.elapsedRealtime();
+            Bitmap thumbnail = null;
+            File file = null;
+            PdfImage pdfImage = null;
+            try {
+                if (image == null) {
+                    image = ScanJob.loadImage(imagePath);
+                }
+                if (!image.empty()) {
+                    Mat scan = ScanJob.scan(image, page.contour);
+                    release();
+                    file = new File(outputDir, "page_" + page.index + ".jpg");
+                    thumbnail = write(scan, file);
+                    if (pdfExecutor != null) {
+                        pdfImage = writePdfImage(scan, file);
+                    }
+                    scan.release();
+                }
+            } catch (RuntimeException e) {
+                Log.e(BatchScanner.class.getSimpleName(), "Page " + page.index + " failed", e);
+            } finally {
+                release();
+                pending.decrementAndGet();
+            }
+            Log.d(BatchScanner.class.getSimpleName(), "Page " + page.index + " scanned in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            deliver(file, thumbnail, pdfImage);
+        }
+
+        void release() {
+            if (image != null) {
+                image.release();
+                image = null;
+            }
+        }
+
+        private Bitmap write(Mat scan, File file) {
+            encode(scan, file, PAGE_QUALITY);
+
+            double factor = Math.min(1.0,
+                    (double) THUMBNAIL_MAX_SIDE / Math.max(scan.cols(), scan.rows()));
+            Mat small = new Mat();
+            Imgproc.resize(scan, small, new Size(), factor, factor, Imgproc.INTER_AREA);
+            Bitmap bitmap = Bitmap.createBitmap(small.cols(), small.rows(), Bitmap.Config.RGB_565);
+            Utils.matToBitmap(small, bitmap);
+            small.release();
+            return bitmap;
+        }
+
+        /**
+         * @return the page file itself when its resolution fits the PDF, otherwise a downscaled
+         * JPEG written next to it.
+         */
+        private PdfImage writePdfImage(Mat scan, File file) {
+            PdfWriter.PageSettings settings =
+                    page.pdfSettings != null ? page.pdfSettings : pdfSettings;
+            int channels = scan.channels() == 1 ? 1 : 3;
+            double factor = PdfWriter.getResampleFactor(scan.cols(), scan.rows(),
+                    settings.getDpi());
+            if (factor >= 1) {
+                return new PdfImage(file, scan.cols(), scan.rows(), channels, false);
+            }
+            Mat pixels = new Mat();
+            Imgproc.resize(scan, pixels, new Size(), factor, factor, Imgproc.INTER_AREA);
+            File pdfFile = new File(outputDir, "page_" + page.index + "_pdf.jpg");
+            try {
+                encode(pixels, pdfFile, settings.getQuality());
+                return new PdfImage(pdfFile, pixels.cols(), pixels.rows(), channels, true);
+            } finally {
+                pixels.release();
+            }
+        }
+
+        private void deliver(final File file, final Bitmap thumbnail, final PdfImage pdfImage) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    page.file = file;
+                    page.pdfImage = pdfImage;
+                    page.state = thumbnail != null ? Page.State.SCANNED : Page.State.FAILED;
+                    if (page.state == Page.State.SCANNED) {
+                        scannedPages++;
+                        lastScanTime = SystemClock.elapsedRealtime();
+                    }
+                    if (shutdown) {
+                        // Page still goes into the document, but it isn't shown anymore
+                        if (thumbnail != null) {
+                            thumbnail.recycle();
+                        }
+                    } else {
+                        page.thumbnail = thumbnail;
+                        listener.onPageFinished(page);
+                    }
+                    if (pdfExecutor != null) {
+                        appendFinishedPages();
+                    }
+                }
+            });
+        }
+
+    }
+
+    private static void encode(Mat image, File file, int quality) {
+        ScanEncoder encoder = new ScanEncoder(ScanEncoder.Format.JPEG, quality);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            encoder.encode(image, out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write " + file, e);
+        }
+    }
+
+    /**
+     * JPEG image of a page waiting to be added to the PDF document.
+     */
+    private static class PdfImage {
+
+        final File file;
+        final int width;
+        final int height;
+        final int channels;
+        // Written only for the document, deleted once it's added
+        final boolean temporary;
+
+        PdfImage(File file, int width, int height, int channels, boolean temporary) {
+            this.file = file;
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            this.temporary = temporary;
+        }
+
+        void release() {
+            if (temporary && !file.delete()) {
+                Log.w(BatchScanner.class.getSimpleName(), "Can't delete " + file);
+            }
+        }
+
+    }
+
+    public static class Page {
+
+        public enum State { SCANNING, SCANNED, FAILED }
+
+        private final int index;
+        private final Quad contour;
+        private State state = State.SCANNING;
+        private File file;
+        private Bitmap thumbnail;
+        private PdfImage pdfImage;
+        private volatile PdfWriter.PageSettings pdfSettings;
+
+        Page(int index, Quad contour) {
+            this.index = index;
+            this.contour = contour;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return scanned page written as JPEG, null until the page is scanned.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        public Bitmap getThumbnail() {
+            return thumbnail;
+        }
+
+        /**
+         * Overrides the PDF settings of the batch, takes effect when called before the page's
+         * scan finishes.
+         */
+        public void setPdfSettings(PdfWriter.PageSettings pdfSettings) {
+            this.pdfSettings = pdfSettings;
+        }
+
+    }
+
+    public interface Listener {
+
+        /**
+         * Called on the main thread when the page is scanned or its scan failed.
+         */
+        void onPageFinished(Page page);
+
+    }
+
+    public interface DocumentListener {
+
+        /**
+         * Called on the main thread when the PDF document is complete, the listener deletes it
+         * and the output directory it's in when they're no longer needed.
+         */
+        void onDocumentFinished(File pdf, int pages);
+
+    }
+
+}
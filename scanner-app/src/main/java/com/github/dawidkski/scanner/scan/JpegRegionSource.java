@@ -0,0 +1,128 @@
+package com.github.dawidkski.scanner.scan;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.media.ExifInterface;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * JPEG file decoded region by region. Coordinates are those of the upright image, the EXIF
+ * orientation is applied the same way {@link ScanJob#loadImage(String)} applies it.
+ */
+public class JpegRegionSource implements ImageSource, Closeable {
+
+    private final String path;
+    private final BitmapRegionDecoder decoder;
+    private final int rotation;
+    private final int rawWidth;
+    private final int rawHeight;
+
+    public JpegRegionSource(String path) throws IOException {
+        this.path = path;
+        this.decoder = BitmapRegionDecoder.newInstance(path, false);
+        this.rotation = rotation(new ExifInterface(path).getAttributeInt(
+                ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+        this.rawWidth = decoder.getWidth();
+        this.rawHeight = decoder.getHeight();
+    }
+
+    /**
+     * @return pixels of the JPEG file without decoding it.
+     */
+    public static long pixels(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        return (long) options.outWidth * options.outHeight;
+    }
+
+    @Override
+    public int getWidth() {
+        return rotation % 180 == 0 ? rawWidth : rawHeight;
+    }
+
+    @Override
+    public int getHeight() {
+        return rotation % 180 == 0 ? rawHeight : rawWidth;
+    }
+
+    @Override
+    public Mat read(Rect region) {
+        int left = region.x;
+        int top = region.y;
+        int right = region.x + region.width;
+        int bottom = region.y + region.height;
+        android.graphics.Rect raw;
+        switch (rotation) {
+            case 90:
+                raw = new android.graphics.Rect(top, rawHeight - right, bottom, rawHeight - left);
+                break;
+            case 180:
+                raw = new android.graphics.Rect(rawWidth - right, rawHeight - bottom,
+                        rawWidth - left, rawHeight - top);
+                break;
+            case 270:
+                raw = new android.graphics.Rect(rawWidth - bottom, left, rawWidth - top, right);
+                break;
+            default:
+                raw = new android.graphics.Rect(left, top, right, bottom);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        return toUprightRgb(decoder.decodeRegion(raw, options));
+    }
+
+    @Override
+    public Mat readScaled(int minSide) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = 1;
+        while (Math.max(rawWidth, rawHeight) / (2 * options.inSampleSize) >= minSide) {
+            options.inSampleSize *= 2;
+        }
+        return toUprightRgb(BitmapFactory.decodeFile(path, options));
+    }
+
+    @Override
+    public void close() {
+        decoder.recycle();
+    }
+
+    private static int rotation(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    private Mat toUprightRgb(Bitmap bitmap) {
+        Mat rgba = new Mat();
+        Utils.bitmapToMat(bitmap, rgba);
+        bitmap.recycle();
+        Mat rgb = new Mat();
+        Imgproc.cvtColor(rgba, rgb, Imgproc.COLOR_RGBA2RGB);
+        rgba.release();
+        if (rotation != 0) {
+            int rotateCode = rotation == 90 ? Core.ROTATE_90_CLOCKWISE
+                    : rotation == 180 ? Core.ROTATE_180 : Core.ROTATE_90_COUNTERCLOCKWISE;
+            Core.rotate(rgb, rgb, rotateCode);
+        }
+        return rgb;
+    }
+
+}
@@ -0,0 +1,371 @@
+package com.github.dawidkski.scanner.scan;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.github.dawidkski.scanner.detection.ContourRefiner;
+import com.github.dawidkski.scanner.detection.DocumentDetector;
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.jni.Scanner;
+import com.github.dawidkski.scanner.metrics.Metrics;
+
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Loads a captured image (unless it's already in memory) and scans it off the main thread.
+ * A quick scan of a downscaled copy is delivered first, the full resolution one follows.
+ * Results are delivered on the main thread.
+ * <p>
+ * Cancelling stops the job between steps, a running native scan can't be interrupted,
+ * but its result is dropped.
+ * <p>
+ * With a tiled output directory set, images too big to be scanned in memory are scanned with
+ * {@link TiledWarp}: the document is found on a downscaled copy, the full resolution result is
+ * encoded into a PNG file strip by strip and only a downscaled view of it is kept in memory.
+ * Image files are then decoded region by region as well.
+ * <p>
+ * With a {@link ParallelWarp} set, the full resolution scan is warped on its workers.
+ * The document is then found once by the Java detector on the downscaled copy, the quick scan
+ * and the full resolution warp both start from that contour. The native scanner is a fallback
+ * for images it finds nothing in.
+ */
+public class ScanJob implements Runnable {
+
+    // Longer side of the image used for the quick scan
+    private static final int PREVIEW_MAX_SIDE = 1024;
+    // Images bigger than this are scanned in strips when a tiled output directory is set
+    private static final long TILED_MIN_PIXELS = 20_000_000;
+    // Longer side of the view of a result which is only in a file
+    private static final int DISPLAY_MAX_SIDE = 2048;
+
+    private final String imagePath;
+    private final Mat capturedImage;
+    private final Quad contour;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean cancelled;
+    private volatile File tiledOutputDir;
+    private volatile ParallelWarp parallelWarp;
+
+    /**
+     * @param contour document contour in image coordinates, when known the document
+     *                isn't detected from scratch
+     */
+    public ScanJob(String imagePath, Quad contour, Listener listener) {
+        this(imagePath, null, contour, listener);
+    }
+
+    /**
+     * Scans an image already in memory, the job takes its ownership.
+     */
+    public ScanJob(Mat capturedImage, Quad contour, Listener listener) {
+        this(null, capturedImage, contour, listener);
+    }
+
+    private ScanJob(String imagePath, Mat capturedImage, Quad contour, Listener listener) {
+        this.imagePath = imagePath;
+        this.capturedImage = capturedImage;
+        this.contour = contour;
+        this.listener = listener;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @param dir where results of tiled scans are written, null disables them
+     */
+    public void setTiledOutputDir(File dir) {
+        this.tiledOutputDir = dir;
+    }
+
+    /**
+     * @param warp shared warp the full resolution scan is split among workers of, or null
+     */
+    public void setParallelWarp(ParallelWarp warp) {
+        this.parallelWarp = warp;
+    }
+
+    @Override
+    public void run() {
+        long pixels = capturedImage != null
+                ? capturedImage.total() : JpegRegionSource.pixels(imagePath);
+        if (tiledOutputDir != null && pixels > TILED_MIN_PIXELS) {
+            runTiled();
+            return;
+        }
+
+        Mat image = capturedImage != null ? capturedImage : loadImage(imagePath);
+        if (image.empty()) {
+            Log.e(this.getClass().getSimpleName(), "Can't read image " + imagePath);
+            image.release();
+            return;
+        }
+
+        try {
+            ParallelWarp warp = parallelWarp;
+            Quad seed = contour;
+            double factor = (double) PREVIEW_MAX_SIDE / Math.max(image.cols(), image.rows());
+            if (factor < 1 && !cancelled) {
+                Mat proxy = new Mat();
+                Imgproc.resize(image, proxy, new Size(), factor, factor, Imgproc.INTER_AREA);
+                Quad proxyContour = contour == null ? null : contour.scale((float) factor);
+                if (proxyContour == null && warp != null) {
+                    // Full resolution warp starts from the contour the quick scan shows
+                    proxyContour = detect(proxy);
+                    seed = proxyContour == null ? null : proxyContour.scale((float) (1 / factor));
+                }
+                deliver(scan(proxy, proxyContour), false);
+                proxy.release();
+            } else if (seed == null && warp != null) {
+                seed = detect(image);
+            }
+
+            if (!cancelled) {
+                deliver(warp != null ? scanInParallel(image, seed, warp) : scan(image, contour),
+                        true);
+            }
+        } catch (CancellationException e) {
+            Log.d(this.getClass().getSimpleName(), "Scan cancelled");
+        } finally {
+            image.release();
+        }
+    }
+
+    /**
+     * @param seed document contour in image coordinates, null when none was found
+     */
+    private Mat scanInParallel(Mat image, Quad seed, ParallelWarp warp) {
+        if (seed == null) {
+            return scan(image, null);
+        }
+        ContourRefiner refiner = new ContourRefiner();
+        Quad refined = refiner.refine(image, seed);
+        refiner.release();
+
+        Mat scan = warp.warp(image, refined, null);
+        Metrics.recordNanos(Metrics.Timer.PARALLEL_WARP, warp.getElapsedNanos());
+        Metrics.recordNanos(Metrics.Timer.PARALLEL_WARP_BUSY, warp.getBusyNanos());
+        long elapsed = warp.getElapsedNanos();
+        Log.d(this.getClass().getSimpleName(), String.format(Locale.US,
+                "Parallel warp on %d workers: %.1f ms, %.2fx", warp.getParallelism(),
+                elapsed / 1e6, (double) warp.getBusyNanos() / Math.max(1, elapsed)));
+        return scan;
+    }
+
+    private void runTiled() {
+        ImageSource source;
+        try {
+            source = capturedImage != null
+                    ? new ImageSource.MatSource(capturedImage) : new JpegRegionSource(imagePath);
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), "Can't read image " + imagePath, e);
+            return;
+        }
+        File file = null;
+        Mat display = null;
+        TiledWarp warp = new TiledWarp();
+        try {
+            Mat proxy = source.readScaled(PREVIEW_MAX_SIDE);
+            float factor = (float) proxy.cols() / source.getWidth();
+            Quad proxyContour = contour != null ? contour.scale(factor) : detect(proxy);
+            if (!cancelled) {
+                deliver(scan(proxy, proxyContour), false);
+            }
+            proxy.release();
+            if (cancelled) {
+                return;
+            }
+
+            Quad seed = proxyContour != null ? proxyContour.scale(1 / factor) : new Quad(
+                    new float[]{0, 0, source.getWidth(), 0, source.getWidth(), source.getHeight(),
+                            0, source.getHeight()});
+            ContourRefiner refiner = new ContourRefiner();
+            Quad refined = TiledWarp.refine(source, seed, refiner);
+            refiner.release();
+
+            Size size = PerspectiveWarp.outputSize(refined);
+            double displayFactor = Math.min(1,
+                    DISPLAY_MAX_SIDE / Math.max(size.width, size.height));
+            display = new Mat((int) Math.round(size.height * displayFactor),
+                    (int) Math.round(size.width * displayFactor), CvType.CV_8UC3);
+            final Mat view = display;
+            file = File.createTempFile("scan", ".png", tiledOutputDir);
+            long start = System.nanoTime();
+            try (final PngStripWriter png = new PngStripWriter(new BufferedOutputStream(
+                    new FileOutputStream(file)), (int) size.width, (int) size.height)) {
+                warp.warp(source, refined, size, new TiledWarp.Sink() {
+                    @Override
+                    public void write(Mat strip, int top) {
+                        if (cancelled) {
+                            throw new CancellationException();
+                        }
+                        png.write(strip, top);
+                        downscaleInto(view, strip, top, png.getHeight());
+                    }
+                });
+            }
+            Metrics.record(Metrics.Timer.TILED_SCAN, start);
+            deliverFile(file, display);
+            file = null;
+        } catch (CancellationException e) {
+            Log.d(this.getClass().getSimpleName(), "Tiled scan cancelled");
+        } catch (IOException | IllegalStateException e) {
+            // Sink failures come wrapped in IllegalStateException
+            Log.e(this.getClass().getSimpleName(), "Tiled scan failed", e);
+        } finally {
+            warp.release();
+            if (display != null) {
+                display.release();
+            }
+            if (file != null && !file.delete()) {
+                Log.w(this.getClass().getSimpleName(), "Can't delete " + file);
+            }
+            if (capturedImage != null) {
+                capturedImage.release();
+            }
+            if (source instanceof Closeable) {
+                try {
+                    ((Closeable) source).close();
+                } catch (IOException e) {
+                    Log.w(this.getClass().getSimpleName(), "Can't close " + imagePath, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param contour document contour in coordinates of {@code image} or null
+     */
+    public static Mat scan(Mat image, Quad contour) {
+        if (contour != null) {
+            // Contour is already known, it only needs to be refined
+            ContourRefiner refiner = new ContourRefiner();
+            Quad refined = refiner.refine(image, contour);
+            refiner.release();
+            return PerspectiveWarp.warp(image, refined);
+        }
+        Mat scan = new Mat();
+        long start = System.nanoTime();
+        Scanner.softwareScanner(image.getNativeObjAddr(), scan.getNativeObjAddr());
+        Metrics.record(Metrics.Timer.SOFTWARE_SCANNER, start);
+        return scan;
+    }
+
+    public static Mat loadImage(String imagePath) {
+        Mat bgrImage = Imgcodecs.imread(imagePath);
+        Mat rgbImage = new Mat();
+        if (!bgrImage.empty()) {
+            Imgproc.cvtColor(bgrImage, rgbImage, Imgproc.COLOR_BGR2RGB);
+        }
+        bgrImage.release();
+        return rgbImage;
+    }
+
+    private static Quad detect(Mat rgb) {
+        Mat gray = new Mat();
+        Imgproc.cvtColor(rgb, gray, Imgproc.COLOR_RGB2GRAY);
+        DocumentDetector detector = new DocumentDetector();
+        Quad detected = detector.detect(gray);
+        detector.release();
+        gray.release();
+        return detected;
+    }
+
+    /**
+     * Puts a strip of the full resolution result into its place in the downscaled view.
+     */
+    private static void downscaleInto(Mat display, Mat strip, int top, int height) {
+        double factor = (double) display.rows() / height;
+        int displayTop = (int) Math.round(top * factor);
+        int displayBottom = (int) Math.round((top + strip.rows()) * factor);
+        if (displayBottom <= displayTop) {
+            return;
+        }
+        Mat rows = display.rowRange(displayTop, displayBottom);
+        Imgproc.resize(strip, rows, rows.size(), 0, 0, Imgproc.INTER_AREA);
+        rows.release();
+    }
+
+    private void deliverFile(final File file, Mat display) {
+        final Bitmap bitmap = Bitmap.createBitmap(display.cols(), display.rows(),
+                Bitmap.Config.RGB_565);
+        Utils.matToBitmap(display, bitmap);
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled) {
+                    bitmap.recycle();
+                    if (!file.delete()) {
+                        Log.w(ScanJob.class.getSimpleName(), "Can't delete " + file);
+                    }
+                } else {
+                    listener.onScannedToFile(file, bitmap);
+                }
+            }
+        });
+    }
+
+    private void deliver(final Mat scan, final boolean isFullResolution) {
+        // Bitmap is prepared here as well, it's too slow for the main thread at full resolution
+        final Bitmap bitmap = Bitmap.createBitmap(scan.cols(), scan.rows(), Bitmap.Config.RGB_565);
+        Utils.matToBitmap(scan, bitmap);
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled) {
+                    scan.release();
+                    bitmap.recycle();
+                } else if (isFullResolution) {
+                    listener.onScanned(scan, bitmap);
+                } else {
+                    listener.onPreviewScanned(scan, bitmap);
+                }
+            }
+        });
+    }
+
+    public interface Listener {
+
+        /**
+         * Quick, downscaled result. Listener takes ownership of both scan and bitmap.
+         */
+        void onPreviewScanned(Mat scan, Bitmap bitmap);
+
+        /**
+         * Full resolution result. Listener takes ownership of both scan and bitmap.
+         */
+        void onScanned(Mat scan, Bitmap bitmap);
+
+        /**
+         * Full resolution result of a tiled scan, encoded as PNG. The bitmap is its downscaled
+         * view. Listener takes ownership of both the file and bitmap.
+         */
+        void onScannedToFile(File file, Bitmap bitmap);
+
+    }
+
+}
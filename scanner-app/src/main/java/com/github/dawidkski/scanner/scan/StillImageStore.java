@@ -0,0 +1,53 @@
+package com.github.dawidkski.scanner.scan;
+
+import org.opencv.core.Mat;
+
+/**
+ * Hands an image captured in memory over between screens, navigation arguments carry
+ * only the key. A single image is held, one which is never taken (navigation didn't happen)
+ * is released when the next one is put.
+ */
+public class StillImageStore {
+
+    private static String key;
+    private static Mat image;
+    private static int nextKey;
+
+    private StillImageStore() {
+    }
+
+    /**
+     * Store takes ownership of the image until it's taken back.
+     */
+    public static synchronized String put(Mat image) {
+        clear();
+        key = "still-" + nextKey++;
+        StillImageStore.image = image;
+        return key;
+    }
+
+    /**
+     * @return stored image or null when there's none under the key, caller takes its ownership.
+     */
+    public static synchronized Mat take(String key) {
+        if (image == null || !key.equals(StillImageStore.key)) {
+            return null;
+        }
+        Mat taken = image;
+        image = null;
+        StillImageStore.key = null;
+        return taken;
+    }
+
+    /**
+     * Releases the image which wasn't taken, if any.
+     */
+    public static synchronized void clear() {
+        if (image != null) {
+            image.release();
+            image = null;
+        }
+        key = null;
+    }
+
+}
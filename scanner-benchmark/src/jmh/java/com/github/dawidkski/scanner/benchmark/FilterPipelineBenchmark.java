@@ -0,0 +1,83 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.scan.FilterPipeline;
+import com.github.dawidkski.scanner.scan.ParallelWarp;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Document filters of a scan of the synthetic scene. {@code fresh} filters with a new pipeline,
+ * {@code switched} with one which has already applied the {@code previous} filter, so stages
+ * shared with it are cached, e.g. black and white after grayscale only binarizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FilterPipelineBenchmark {
+
+    @Param({"1920x1080", "4000x3000"})
+    public String size;
+
+    @Param({"GRAYSCALE", "BLACK_AND_WHITE", "COLOR_BOOST"})
+    public FilterPipeline.Filter filter;
+
+    @Param({"GRAYSCALE"})
+    public FilterPipeline.Filter previous;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Mat scan;
+    private ParallelWarp warp;
+    private FilterPipeline switched;
+
+    @Setup
+    public void setUp() {
+        Fixtures.loadOpenCv();
+        scan = Fixtures.scan(size);
+        warp = new ParallelWarp(parallelism);
+    }
+
+    @Setup(Level.Invocation)
+    public void applyPrevious() {
+        switched = new FilterPipeline(scan, warp);
+        switched.apply(previous);
+    }
+
+    @TearDown(Level.Invocation)
+    public void releaseSwitched() {
+        switched.release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        warp.shutdown();
+        scan.release();
+    }
+
+    @Benchmark
+    public long fresh() {
+        FilterPipeline pipeline = new FilterPipeline(scan, warp);
+        long total = pipeline.apply(filter).total();
+        pipeline.release();
+        return total;
+    }
+
+    @Benchmark
+    public long switched() {
+        return switched.apply(filter).total();
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.scan.PerspectiveWarp;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Images the benchmarks run on. Synthetic scenes are generated from a fixed seed, so results
+ * are comparable between runs and hosts. Photos can be added with the {@code scanner.fixtures}
+ * system property pointing to a directory.
+ */
+final class Fixtures {
+
+    static final String FIXTURES_PROPERTY = "scanner.fixtures";
+
+    private static final int PAGE_WIDTH = 850;
+    private static final int PAGE_HEIGHT = 1100;
+    private static boolean openCvLoaded;
+
+    private Fixtures() {
+    }
+
+    static synchronized void loadOpenCv() {
+        if (!openCvLoaded) {
+            nu.pattern.OpenCV.loadLocally();
+            openCvLoaded = true;
+        }
+    }
+
+    /**
+     * @param size width and height of a {@code @Param}, e.g. {@code "1920x1080"}
+     * @return width and height.
+     */
+    static int[] dimensions(String size) {
+        String[] parts = size.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    /**
+     * @param size of the scene, see {@link #dimensions(String)}
+     * @return RGB scan of the page of the synthetic scene, the caller releases it.
+     */
+    static Mat scan(String size) {
+        int[] dimensions = dimensions(size);
+        Mat scene = syntheticScene(dimensions[0], dimensions[1]);
+        Mat scan = PerspectiveWarp.warp(scene, pageCorners(dimensions[0], dimensions[1]));
+        scene.release();
+        return scan;
+    }
+
+    /**
+     * @return RGB scene with a text page seen at an angle on a noisy desk.
+     */
+    static Mat syntheticScene(int width, int height) {
+        Core.setRNGSeed(42);
+        Mat scene = new Mat(height, width, CvType.CV_8UC3);
+        Core.randn(scene, 90, 12);
+
+        Mat page = new Mat(PAGE_HEIGHT, PAGE_WIDTH, CvType.CV_8UC3, new Scalar(235, 235, 230));
+        for (int y = 120; y < PAGE_HEIGHT - 80; y += 36) {
+            Imgproc.putText(page, "The quick brown fox jumps over the lazy dog " + y,
+                    new Point(60, y), Imgproc.FONT_HERSHEY_SIMPLEX, 0.8, new Scalar(30, 30, 40), 2);
+        }
+
+        Quad corners = pageCorners(width, height);
+        MatOfPoint2f source = new MatOfPoint2f(new Point(0, 0), new Point(PAGE_WIDTH, 0),
+                new Point(PAGE_WIDTH, PAGE_HEIGHT), new Point(0, PAGE_HEIGHT));
+        MatOfPoint2f destination = new MatOfPoint2f(
+                new Point(corners.x(0), corners.y(0)), new Point(corners.x(1), corners.y(1)),
+                new Point(corners.x(2), corners.y(2)), new Point(corners.x(3), corners.y(3)));
+        Mat transform = Imgproc.getPerspectiveTransform(source, destination);
+        Imgproc.warpPerspective(page, scene, transform, scene.size(), Imgproc.INTER_LINEAR,
+                Core.BORDER_TRANSPARENT);
+
+        page.release();
+        source.release();
+        destination.release();
+        transform.release();
+        return scene;
+    }
+
+    /**
+     * @return where {@link #syntheticScene(int, int)} puts the page.
+     */
+    static Quad pageCorners(int width, int height) {
+        return new Quad(new float[]{
+                0.30f * width, 0.12f * height,
+                0.72f * width, 0.16f * height,
+                0.78f * width, 0.88f * height,
+                0.24f * width, 0.84f * height});
+    }
+
+    /**
+     * @return RGB photos from the fixtures directory, empty when it isn't set.
+     */
+    static List<Mat> photos() {
+        List<Mat> photos = new ArrayList<>();
+        String directory = System.getProperty(FIXTURES_PROPERTY);
+        File[] files = directory == null ? null : new File(directory).listFiles();
+        if (files == null) {
+            return photos;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            Mat bgr = Imgcodecs.imread(file.getAbsolutePath());
+            if (bgr.empty()) {
+                continue;
+            }
+            Imgproc.cvtColor(bgr, bgr, Imgproc.COLOR_BGR2RGB);
+            photos.add(bgr);
+        }
+        return photos;
+    }
+
+    static Mat gray(Mat rgb, Size size) {
+        Mat gray = new Mat();
+        Imgproc.cvtColor(rgb, gray, Imgproc.COLOR_RGB2GRAY);
+        if (size != null) {
+            Imgproc.resize(gray, gray, size, 0, 0, Imgproc.INTER_AREA);
+        }
+        return gray;
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.scan.Enhancement;
+import com.github.dawidkski.scanner.scan.ParallelWarp;
+import com.github.dawidkski.scanner.scan.PerspectiveWarp;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warp with enhancement of a still image split among a number of workers. {@code wholeImage}
+ * is the single threaded baseline: a warp of the whole scan followed by its enhancement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelWarpBenchmark {
+
+    @Param({"4000x3000"})
+    public String size;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"none", "contrast", "binarization"})
+    public String enhancement;
+
+    private ParallelWarp warp;
+    private Enhancement selected;
+    private Mat scene;
+    private Quad contour;
+
+    @Setup
+    public void setUp() {
+        Fixtures.loadOpenCv();
+        int[] dimensions = Fixtures.dimensions(size);
+        scene = Fixtures.syntheticScene(dimensions[0], dimensions[1]);
+        contour = Fixtures.pageCorners(dimensions[0], dimensions[1]);
+        warp = new ParallelWarp(parallelism);
+        switch (enhancement) {
+            case "contrast":
+                selected = new Enhancement.Contrast(1.4, -30);
+                break;
+            case "binarization":
+                selected = new Enhancement.Binarization(31, 10);
+                break;
+            default:
+                selected = null;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        warp.shutdown();
+        scene.release();
+    }
+
+    @Benchmark
+    public long bands() {
+        Mat scan = warp.warp(scene, contour, selected);
+        long total = scan.total();
+        scan.release();
+        return total;
+    }
+
+    @Benchmark
+    public long wholeImage() {
+        Mat scan = PerspectiveWarp.warp(scene, contour);
+        if (selected != null) {
+            selected.apply(scan, scan);
+        }
+        long total = scan.total();
+        scan.release();
+        return total;
+    }
+
+}
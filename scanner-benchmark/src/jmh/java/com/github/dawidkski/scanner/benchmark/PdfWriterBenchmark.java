@@ -0,0 +1,100 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.export.PdfWriter;
+import com.github.dawidkski.scanner.export.ScanEncoder;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending a scanned page to a PDF document, the document is written to a stream which only
+ * counts the bytes. The size of the document is the result. {@code addJpegPage} embeds the page
+ * JPEG a batch scan has already written, {@code addPage} encodes the page for the document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PdfWriterBenchmark {
+
+    @Param({"4000x3000"})
+    public String size;
+
+    @Param({"150", "300"})
+    public int dpi;
+
+    @Param({"80"})
+    public int quality;
+
+    private Mat page;
+    private PdfWriter.PageSettings settings;
+    private byte[] jpeg;
+
+    @Setup
+    public void setUp() {
+        Fixtures.loadOpenCv();
+        page = Fixtures.scan(size);
+        settings = new PdfWriter.PageSettings(dpi, quality);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new ScanEncoder(ScanEncoder.Format.JPEG, quality).encode(page, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        jpeg = out.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        page.release();
+    }
+
+    @Benchmark
+    public long addPage() throws IOException {
+        CountingStream out = new CountingStream();
+        PdfWriter writer = new PdfWriter(out);
+        writer.addPage(page, settings);
+        writer.close();
+        return out.count;
+    }
+
+    @Benchmark
+    public long addJpegPage() throws IOException {
+        CountingStream out = new CountingStream();
+        PdfWriter writer = new PdfWriter(out);
+        writer.addJpegPage(new ByteArrayInputStream(jpeg), page.cols(), page.rows(),
+                page.channels());
+        writer.close();
+        return out.count;
+    }
+
+    private static class CountingStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+
+    }
+
+}
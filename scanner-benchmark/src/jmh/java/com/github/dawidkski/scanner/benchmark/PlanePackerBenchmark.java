@@ -0,0 +1,130 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.camera.frame.PlanePacker;
+import com.github.dawidkski.scanner.camera.frame.StridedPlanePacker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing of a single plane for the stride combinations camera HALs deliver: luma and planar
+ * chroma with pixel stride 1, semi-planar chroma with pixel stride 2, either with rows exactly
+ * as wide as the image or padded for alignment. The strided packer samples rows through
+ * a scratch array kept between calls, like the frame conversion does with a pooled one.
+ * The packed plane is checked against a sample by sample copy before measuring, so a broken
+ * fast path fails the run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlanePackerBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    @Param({"0", "64"})
+    public int rowPadding;
+
+    @Param({"1", "2"})
+    public int pixelStride;
+
+    @Param({"direct", "heap"})
+    public String output;
+
+    @Param({"strided", "rowByRow"})
+    public String packer;
+
+    private int width;
+    private int height;
+    private int rowStride;
+    private ByteBuffer plane;
+    private ByteBuffer out;
+    private PlanePacker planePacker;
+    private byte[] scratch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] dimensions = Fixtures.dimensions(size);
+        width = dimensions[0];
+        height = dimensions[1];
+        rowStride = width * pixelStride + rowPadding;
+
+        // Like camera planes, the last row isn't padded
+        byte[] bytes = new byte[rowStride * (height - 1) + (width - 1) * pixelStride + 1];
+        new Random(42).nextBytes(bytes);
+        plane = ByteBuffer.allocateDirect(bytes.length);
+        plane.put(bytes);
+        plane.rewind();
+        out = output.equals("direct")
+                ? ByteBuffer.allocateDirect(width * height) : ByteBuffer.allocate(width * height);
+        planePacker = packer.equals("strided") ? new StridedPlanePacker() : new RowByRowPacker();
+        scratch = new byte[StridedPlanePacker.scratchSize(pixelStride, width)];
+
+        pack();
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                if (out.get(row * width + column) != bytes[row * rowStride + column * pixelStride]) {
+                    throw new IllegalStateException("Sample " + column + "x" + row + " differs");
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer pack() {
+        out.clear();
+        planePacker.pack(plane, rowStride, pixelStride, width, height, out, scratch);
+        return out;
+    }
+
+    /**
+     * Row by row copy with position adjustments the frame conversion used before, kept as
+     * a baseline.
+     */
+    private static class RowByRowPacker implements PlanePacker {
+
+        // Row array of its own like the old conversion, the scratch array isn't used
+        private byte[] row;
+
+        @Override
+        public void pack(ByteBuffer plane, int rowStride, int pixelStride, int width, int height,
+                         ByteBuffer out, byte[] scratch) {
+            if (row == null || row.length != width) {
+                row = new byte[width];
+            }
+            int start = plane.position();
+            int padding = rowStride - width * pixelStride;
+            for (int i = 0; i < height; i++) {
+                if (pixelStride == 1) {
+                    plane.get(row, 0, width);
+                } else {
+                    for (int j = 0; j < width; j++) {
+                        row[j] = plane.get();
+                        if (j < width - 1) {
+                            plane.position(plane.position() + pixelStride - 1);
+                        }
+                    }
+                    padding = rowStride - (width - 1) * pixelStride - 1;
+                }
+                out.put(row, 0, width);
+                if (i < height - 1) {
+                    plane.position(plane.position() + padding);
+                }
+            }
+            plane.position(start);
+        }
+
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.camera.size.FrameSize;
+import com.github.dawidkski.scanner.camera.size.PreviewSizePolicy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preview size selection over a size list typical for a current phone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PreviewSizePolicyBenchmark {
+
+    private final List<FrameSize> supported = Arrays.asList(
+            new FrameSize(4032, 3024), new FrameSize(4000, 3000), new FrameSize(4032, 2268),
+            new FrameSize(3024, 3024), new FrameSize(2976, 2976), new FrameSize(2592, 1944),
+            new FrameSize(1920, 1440), new FrameSize(1920, 1080), new FrameSize(1600, 1200),
+            new FrameSize(1440, 1080), new FrameSize(1280, 960), new FrameSize(1280, 720),
+            new FrameSize(1024, 768), new FrameSize(960, 720), new FrameSize(800, 600),
+            new FrameSize(720, 480), new FrameSize(640, 480), new FrameSize(640, 360),
+            new FrameSize(352, 288), new FrameSize(320, 240), new FrameSize(176, 144));
+    private final FrameSize stillSize = new FrameSize(4032, 3024);
+    private final PreviewSizePolicy policy = new PreviewSizePolicy();
+
+    @Benchmark
+    public PreviewSizePolicy.Selection selectAnalysisSize() {
+        return policy.selectAnalysisSize(supported, stillSize);
+    }
+
+    @Benchmark
+    public PreviewSizePolicy.Selection selectDisplaySize() {
+        return policy.selectDisplaySize(supported, stillSize, 1080, 2280);
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.camera.frame.FramePool;
+import com.github.dawidkski.scanner.camera.replay.FrameRecording;
+import com.github.dawidkski.scanner.camera.replay.FrameRecordingReader;
+import com.github.dawidkski.scanner.camera.replay.FrameRecordingWriter;
+import com.github.dawidkski.scanner.camera.replay.RecordedFrame;
+import com.github.dawidkski.scanner.detection.ContourTracker;
+import com.github.dawidkski.scanner.detection.DocumentDetector;
+import com.github.dawidkski.scanner.detection.Quad;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preview pipeline on recorded frames, without a device. {@code frame} reads the next frame of
+ * a {@link FrameRecording} (starting over at its end), converts it to RGBA like a camera frame,
+ * downscales its Y plane like luma analysis does and tracks the document on it, {@code convert}
+ * only reads and converts. Rendering needs a device and isn't included.
+ * <p>
+ * Frames come from the recording the {@code scanner.replay} system property points to, e.g. one
+ * recorded on a device, otherwise from a synthetic one with NV21 chroma and padded rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplayBenchmark {
+
+    static final String REPLAY_PROPERTY = "scanner.replay";
+
+    private static final int SYNTHETIC_FRAMES = 30;
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 30;
+    // Bytes added to the end of every row, the way HALs align rows
+    private static final int ROW_PADDING = 64;
+
+    // Size of the synthetic recording
+    @Param({"1280x720"})
+    public String size;
+
+    // Times the Y plane is downscaled by half before tracking
+    @Param({"0", "1"})
+    public int pyramidLevels;
+
+    private File file;
+    private boolean temporary;
+    private FramePool pool;
+    private FrameRecordingReader reader;
+    private ContourTracker tracker;
+
+    @Setup
+    public void setUp() throws IOException {
+        Fixtures.loadOpenCv();
+        String replay = System.getProperty(REPLAY_PROPERTY);
+        if (replay != null) {
+            file = new File(replay);
+        } else {
+            int[] dimensions = Fixtures.dimensions(size);
+            file = File.createTempFile("replay", ".yuv");
+            temporary = true;
+            writeSynthetic(file, dimensions[0], dimensions[1]);
+        }
+        pool = new FramePool(4);
+        reader = new FrameRecordingReader(file, pool);
+        tracker = new ContourTracker(new DocumentDetector());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        tracker.release();
+        pool.clear();
+        if (temporary && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public long convert() throws IOException {
+        RecordedFrame frame = next();
+        Mat rgba = frame.toRgba(pool);
+        long address = rgba.dataAddr();
+        pool.releaseMat(rgba);
+        frame.close();
+        return address;
+    }
+
+    @Benchmark
+    public Quad frame() throws IOException {
+        RecordedFrame frame = next();
+        Mat rgba = frame.toRgba(pool);
+        Mat gray = new Mat(frame.getHeight(), frame.getWidth(), CvType.CV_8UC1,
+                frame.getPlane(0), frame.getRowStride(0));
+        Mat analysis = gray;
+        for (int level = 0; level < pyramidLevels; level++) {
+            Mat scaled = new Mat();
+            Imgproc.pyrDown(analysis, scaled);
+            if (analysis != gray) {
+                analysis.release();
+            }
+            analysis = scaled;
+        }
+        Quad quad = tracker.track(analysis);
+        if (analysis != gray) {
+            analysis.release();
+        }
+        gray.release();
+        pool.releaseMat(rgba);
+        frame.close();
+        return quad;
+    }
+
+    private RecordedFrame next() throws IOException {
+        RecordedFrame frame = reader.next();
+        if (frame == null) {
+            reader.rewind();
+            frame = reader.next();
+            if (frame == null) {
+                throw new IOException("No frames in " + file);
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Records the synthetic scene shifted by a couple of pixels in every frame.
+     */
+    private static void writeSynthetic(File file, int width, int height) throws IOException {
+        Mat scene = Fixtures.syntheticScene(width, height);
+        Mat shifted = new Mat();
+        Mat yuv = new Mat();
+        int rowStride = width + ROW_PADDING;
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        byte[] i420 = new byte[width * (height + chromaHeight)];
+        try (FrameRecordingWriter writer = new FrameRecordingWriter(file, width, height,
+                FrameRecording.CHROMA_NV21, SYNTHETIC_FRAMES)) {
+            for (int i = 0; i < SYNTHETIC_FRAMES; i++) {
+                Mat shift = new Mat(2, 3, CvType.CV_32F);
+                shift.put(0, 0, 1, 0, i % 4, 0, 1, i / 2);
+                Imgproc.warpAffine(scene, shifted, shift, scene.size());
+                shift.release();
+                Imgproc.cvtColor(shifted, yuv, Imgproc.COLOR_RGB2YUV_I420);
+                yuv.get(0, 0, i420);
+
+                ByteBuffer luma = ByteBuffer.allocateDirect(rowStride * (height - 1) + width);
+                for (int row = 0; row < height; row++) {
+                    luma.position(row * rowStride);
+                    luma.put(i420, row * width, width);
+                }
+                luma.rewind();
+                // V first, U one byte after it in the same memory, like NV21 on a device
+                ByteBuffer chroma = ByteBuffer.allocateDirect(
+                        rowStride * (chromaHeight - 1) + width);
+                int uOffset = width * height;
+                int vOffset = uOffset + chromaWidth * chromaHeight;
+                for (int row = 0; row < chromaHeight; row++) {
+                    for (int column = 0; column < chromaWidth; column++) {
+                        int sample = row * chromaWidth + column;
+                        chroma.put(row * rowStride + 2 * column, i420[vOffset + sample]);
+                        chroma.put(row * rowStride + 2 * column + 1, i420[uOffset + sample]);
+                    }
+                }
+                int chromaLength = chroma.capacity() - 1;
+                ByteBuffer[] planes = {luma, slice(chroma, 1, chromaLength),
+                        slice(chroma, 0, chromaLength)};
+                if (!writer.write(i * FRAME_NANOS, null, planes,
+                        new int[]{rowStride, rowStride, rowStride}, new int[]{1, 2, 2})) {
+                    throw new IOException("Synthetic frame " + i + " dropped");
+                }
+            }
+        } finally {
+            scene.release();
+            shifted.release();
+            yuv.release();
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+}
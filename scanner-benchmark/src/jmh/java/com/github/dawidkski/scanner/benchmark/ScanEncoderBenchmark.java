@@ -0,0 +1,91 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.export.ScanEncoder;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Export encoding of a scan of the synthetic scene. {@code png} is the lossless encoding scans
+ * used to be saved with (zlib level 6, as Bitmap.compress), the encoded size of every
+ * benchmark is its result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanEncoderBenchmark {
+
+    @Param({"4000x3000"})
+    public String size;
+
+    @Param({"JPEG", "WEBP"})
+    public ScanEncoder.Format format;
+
+    @Param({"80", "90"})
+    public int quality;
+
+    // Encoded size to stay under, 0 for none
+    @Param({"0"})
+    public long maxBytes;
+
+    private Mat scan;
+
+    @Setup
+    public void setUp() {
+        Fixtures.loadOpenCv();
+        scan = Fixtures.scan(size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scan.release();
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        return new ScanEncoder(format, quality, maxBytes).encode(scan, new DiscardingStream());
+    }
+
+    @Benchmark
+    public long png() {
+        Mat bgr = new Mat();
+        Imgproc.cvtColor(scan, bgr, Imgproc.COLOR_RGB2BGR);
+        MatOfByte encoded = new MatOfByte();
+        MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, 6);
+        Imgcodecs.imencode(".png", bgr, encoded, params);
+        long total = encoded.total();
+        encoded.release();
+        params.release();
+        bgr.release();
+        return total;
+    }
+
+    private static class DiscardingStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.detection.ContourRefiner;
+import com.github.dawidkski.scanner.detection.DocumentDetector;
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.scan.PerspectiveWarp;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole scan of every photo in the fixtures directory: detection on a downscaled copy,
+ * refinement on the photo and warping. Without fixtures it falls back to a synthetic 12 MP
+ * scene, so it always measures something.
+ * <pre>
+ *     ./gradlew :scanner-benchmark:jmh -Pfixtures=/path/to/photos
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanFixturesBenchmark {
+
+    private static final int ANALYSIS_WIDTH = 640;
+
+    private final List<Mat> photos = new ArrayList<>();
+    private final List<Mat> analysisFrames = new ArrayList<>();
+    private DocumentDetector detector;
+    private ContourRefiner refiner;
+
+    @Setup
+    public void setUp() {
+        Fixtures.loadOpenCv();
+        detector = new DocumentDetector();
+        refiner = new ContourRefiner();
+        photos.addAll(Fixtures.photos());
+        if (photos.isEmpty()) {
+            photos.add(Fixtures.syntheticScene(4000, 3000));
+        }
+        for (Mat photo : photos) {
+            int height = Math.round((float) photo.rows() * ANALYSIS_WIDTH / photo.cols());
+            analysisFrames.add(Fixtures.gray(photo, new Size(ANALYSIS_WIDTH, height)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        detector.release();
+        refiner.release();
+        for (Mat mat : photos) {
+            mat.release();
+        }
+        for (Mat mat : analysisFrames) {
+            mat.release();
+        }
+    }
+
+    /**
+     * @return number of photos a document was found in.
+     */
+    @Benchmark
+    public int scanAll() {
+        int scanned = 0;
+        for (int i = 0; i < photos.size(); i++) {
+            Mat photo = photos.get(i);
+            Quad detected = detector.detect(analysisFrames.get(i));
+            if (detected == null) {
+                continue;
+            }
+            Quad seed = detected.scale((float) photo.cols() / ANALYSIS_WIDTH);
+            Mat warped = PerspectiveWarp.warp(photo, refiner.refine(photo, seed));
+            warped.release();
+            scanned++;
+        }
+        return scanned;
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.detection.ContourRefiner;
+import com.github.dawidkski.scanner.detection.ContourTracker;
+import com.github.dawidkski.scanner.detection.DocumentDetector;
+import com.github.dawidkski.scanner.detection.Quad;
+import com.github.dawidkski.scanner.scan.ImageSource;
+import com.github.dawidkski.scanner.scan.PerspectiveWarp;
+import com.github.dawidkski.scanner.scan.PngStripWriter;
+import com.github.dawidkski.scanner.scan.TiledWarp;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detection on analysis frames and refinement with warping on still images, run on
+ * a synthetic scene of the given still image size. Analysis frames are the scene scaled down
+ * to the analysis width, the same way the preview is much smaller than the still image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanPipelineBenchmark {
+
+    private static final int ANALYSIS_WIDTH = 640;
+    // Analysis frames the tracker cycles through, each shifted by a couple of pixels
+    private static final int TRACKED_FRAMES = 8;
+
+    @Param({"1920x1080", "4000x3000"})
+    public String size;
+
+    private final Mat[] trackedFrames = new Mat[TRACKED_FRAMES];
+    private DocumentDetector detector;
+    private ContourTracker tracker;
+    private ContourRefiner refiner;
+    private TiledWarp tiledWarp;
+    private Mat scene;
+    private Mat analysisFrame;
+    private Quad seed;
+    private int nextFrame;
+
+    @Setup
+    public void setUp() {
+        Fixtures.loadOpenCv();
+        detector = new DocumentDetector();
+        tracker = new ContourTracker(new DocumentDetector());
+        refiner = new ContourRefiner();
+        tiledWarp = new TiledWarp();
+        int[] dimensions = Fixtures.dimensions(size);
+        int width = dimensions[0];
+        int height = dimensions[1];
+        scene = Fixtures.syntheticScene(width, height);
+
+        float scale = (float) ANALYSIS_WIDTH / width;
+        analysisFrame = Fixtures.gray(scene,
+                new Size(ANALYSIS_WIDTH, Math.round(height * scale)));
+        for (int i = 0; i < TRACKED_FRAMES; i++) {
+            trackedFrames[i] = new Mat();
+            Mat shift = new Mat(2, 3, CvType.CV_32F);
+            shift.put(0, 0, 1, 0, i % 4, 0, 1, i / 2);
+            Imgproc.warpAffine(analysisFrame, trackedFrames[i], shift, analysisFrame.size());
+            shift.release();
+        }
+
+        Quad detected = detector.detect(analysisFrame);
+        if (detected == null) {
+            throw new IllegalStateException("No document in the synthetic scene");
+        }
+        seed = detected.scale(1 / scale);
+    }
+
+    @TearDown
+    public void tearDown() {
+        detector.release();
+        tracker.release();
+        refiner.release();
+        tiledWarp.release();
+        for (Mat frame : trackedFrames) {
+            frame.release();
+        }
+        analysisFrame.release();
+        scene.release();
+    }
+
+    @Benchmark
+    public Quad detect() {
+        return detector.detect(analysisFrame);
+    }
+
+    @Benchmark
+    public Quad track() {
+        Quad quad = tracker.track(trackedFrames[nextFrame]);
+        nextFrame = (nextFrame + 1) % TRACKED_FRAMES;
+        return quad;
+    }
+
+    @Benchmark
+    public Quad refine() {
+        return refiner.refine(scene, seed);
+    }
+
+    @Benchmark
+    public long warp() {
+        Mat warped = PerspectiveWarp.warp(scene, seed);
+        long total = warped.total();
+        warped.release();
+        return total;
+    }
+
+    /**
+     * What a capture costs on the Java side: refining the preview contour and warping.
+     */
+    @Benchmark
+    public long scan() {
+        Mat warped = PerspectiveWarp.warp(scene, refiner.refine(scene, seed));
+        long total = warped.total();
+        warped.release();
+        return total;
+    }
+
+    /**
+     * The bounded memory path of big images: strip by strip warp encoded as PNG, the encoded
+     * bytes are counted and dropped.
+     */
+    @Benchmark
+    public long scanTiled() throws IOException {
+        ImageSource source = new ImageSource.MatSource(scene);
+        Quad refined = TiledWarp.refine(source, seed, refiner);
+        Size size = PerspectiveWarp.outputSize(refined);
+        CountingStream out = new CountingStream();
+        try (PngStripWriter png = new PngStripWriter(out, (int) size.width, (int) size.height)) {
+            tiledWarp.warp(source, refined, size, png);
+        }
+        return out.count;
+    }
+
+    private static class CountingStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+
+    }
+
+}
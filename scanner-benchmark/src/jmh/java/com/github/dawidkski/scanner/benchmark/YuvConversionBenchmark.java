@@ -0,0 +1,114 @@
+package com.github.dawidkski.scanner.benchmark;
+
+import com.github.dawidkski.scanner.camera.frame.FramePool;
+import com.github.dawidkski.scanner.camera.frame.Yuv420Converter;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of camera YUV planes into RGBA frames, for every layout camera HALs deliver,
+ * with and without row padding and with and without reusing pooled frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvConversionBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    @Param({"NV12", "NV21", "I420"})
+    public String layout;
+
+    // Bytes added to the end of every row, the way HALs align rows
+    @Param({"0", "64"})
+    public int rowPadding;
+
+    @Param({"true", "false"})
+    public boolean pooled;
+
+    private int width;
+    private int height;
+    private int yRowStride;
+    private int chromaRowStride;
+    private ByteBuffer yPlane;
+    private ByteBuffer uPlane;
+    private ByteBuffer vPlane;
+    private FramePool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fixtures.loadOpenCv();
+        int[] dimensions = Fixtures.dimensions(size);
+        width = dimensions[0];
+        height = dimensions[1];
+        pool = new FramePool(pooled ? 4 : 0);
+
+        Random random = new Random(42);
+        yRowStride = width + rowPadding;
+        yPlane = randomPlane(random, yRowStride * (height - 1) + width);
+        if (layout.equals("I420")) {
+            chromaRowStride = width / 2 + rowPadding;
+            int chromaSize = chromaRowStride * (height / 2 - 1) + width / 2;
+            uPlane = randomPlane(random, chromaSize);
+            vPlane = randomPlane(random, chromaSize);
+        } else {
+            // Both chroma planes view the same interleaved memory, one byte apart
+            chromaRowStride = width + rowPadding;
+            ByteBuffer chroma = randomPlane(random, chromaRowStride * (height / 2 - 1) + width);
+            boolean uFirst = layout.equals("NV12");
+            uPlane = slice(chroma, uFirst ? 0 : 1);
+            vPlane = slice(chroma, uFirst ? 1 : 0);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.clear();
+    }
+
+    @Benchmark
+    public long convert() {
+        Mat rgba;
+        if (layout.equals("I420")) {
+            rgba = Yuv420Converter.planarToRgba(yPlane, yRowStride, uPlane, vPlane,
+                    chromaRowStride, 1, width, height, pool);
+        } else {
+            rgba = Yuv420Converter.interleavedToRgba(yPlane, yRowStride, uPlane, chromaRowStride,
+                    vPlane, chromaRowStride, width, height, pool);
+        }
+        long address = rgba.dataAddr();
+        pool.releaseMat(rgba);
+        return address;
+    }
+
+    private static ByteBuffer randomPlane(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        ByteBuffer plane = ByteBuffer.allocateDirect(size);
+        plane.put(bytes);
+        plane.rewind();
+        return plane;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        return duplicate.slice();
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.github.dawidkski.scanner.camera.frame;
+
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * Recycles output Mats, direct staging buffers and heap scratch arrays between camera frames
+ * so the preview loop doesn't allocate native or Java heap memory on every frame.
+ * At most {@code capacity} buffers of each kind are kept, anything above that is released.
+ * A Mat handed out by the pool can be shared with {@link #retainMat(Mat)}, it goes back to
+ * the pool only when every owner has released it.
+ */
+public class FramePool {
+
+    private int capacity;
+    private final ArrayDeque<Mat> mats;
+    private final ArrayDeque<ByteBuffer> buffers;
+    private final ArrayDeque<byte[]> arrays;
+    private final IdentityHashMap<Mat, Integer> retained;
+
+    public FramePool(int capacity) {
+        this.capacity = capacity;
+        this.mats = new ArrayDeque<>(capacity);
+        this.buffers = new ArrayDeque<>(capacity);
+        this.arrays = new ArrayDeque<>(capacity);
+        this.retained = new IdentityHashMap<>();
+    }
+
+    /**
+     * Returns a Mat of requested geometry. Pooled Mat with matching geometry is preferred,
+     * otherwise any pooled Mat is reallocated, and only when the pool is empty a new one is created.
+     */
+    public synchronized Mat acquireMat(int rows, int cols, int type) {
+        Iterator<Mat> iterator = mats.iterator();
+        while (iterator.hasNext()) {
+            Mat mat = iterator.next();
+            if (mat.rows() == rows && mat.cols() == cols && mat.type() == type) {
+                iterator.remove();
+                return mat;
+            }
+        }
+
+        Mat mat = mats.pollFirst();
+        if (mat == null) {
+            return new Mat(rows, cols, type);
+        }
+        mat.create(rows, cols, type);
+        return mat;
+    }
+
+    /**
+     * Lets a consumer holding frames for longer than the camera (e.g. a multi-stage pipeline)
+     * grow the pool, so its buffers are recycled instead of being released.
+     */
+    public synchronized void ensureCapacity(int capacity) {
+        this.capacity = Math.max(this.capacity, capacity);
+    }
+
+    public synchronized void retainMat(Mat mat) {
+        Integer owners = retained.get(mat);
+        retained.put(mat, owners == null ? 2 : owners + 1);
+    }
+
+    public synchronized void releaseMat(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        Integer owners = retained.get(mat);
+        if (owners != null) {
+            if (owners > 2) {
+                retained.put(mat, owners - 1);
+            } else {
+                retained.remove(mat);
+            }
+            return;
+        }
+        if (mats.size() < capacity) {
+            mats.addFirst(mat);
+        } else {
+            mat.release();
+        }
+    }
+
+    /**
+     * @return cleared direct buffer of the requested size, native code can use it without a copy.
+     */
+    public synchronized ByteBuffer acquireBuffer(int size) {
+        Iterator<ByteBuffer> iterator = buffers.iterator();
+        while (iterator.hasNext()) {
+            ByteBuffer buffer = iterator.next();
+            if (buffer.capacity() == size) {
+                iterator.remove();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    public synchronized void releaseBuffer(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (buffers.size() >= capacity) {
+            buffers.pollLast();
+        }
+        buffers.addFirst(buffer);
+    }
+
+    /**
+     * @return heap array of at least the requested size, its content is undefined.
+     */
+    public synchronized byte[] acquireArray(int size) {
+        Iterator<byte[]> iterator = arrays.iterator();
+        while (iterator.hasNext()) {
+            byte[] array = iterator.next();
+            if (array.length >= size) {
+                iterator.remove();
+                return array;
+            }
+        }
+        return new byte[size];
+    }
+
+    public synchronized void releaseArray(byte[] array) {
+        if (array == null) {
+            return;
+        }
+        if (arrays.size() >= capacity) {
+            arrays.pollLast();
+        }
+        arrays.addFirst(array);
+    }
+
+    public synchronized void clear() {
+        for (Mat mat : mats) {
+            mat.release();
+        }
+        mats.clear();
+        buffers.clear();
+        arrays.clear();
+        retained.clear();
+    }
+
+}
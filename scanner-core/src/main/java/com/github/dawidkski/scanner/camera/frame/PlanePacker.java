@@ -0,0 +1,27 @@
+package com.github.dawidkski.scanner.camera.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies a single image plane, laid out with arbitrary row and pixel strides, into a tightly
+ * packed one, e.g. to assemble an I420 frame out of camera planes.
+ */
+public interface PlanePacker {
+
+    /**
+     * Copies {@code width} x {@code height} samples of {@code plane}, starting at its position,
+     * to {@code out}, starting at its position. Position of {@code plane} is left as it was,
+     * position of {@code out} is moved past the copied samples. The last row of the plane
+     * doesn't need to be padded to the full row stride.
+     *
+     * @param rowStride   bytes between starts of two consecutive rows
+     * @param pixelStride bytes between two consecutive samples of a row
+     * @param out         heap or direct buffer with at least {@code width * height} remaining
+     * @param scratch     working array whose content is overwritten, as long as the
+     *                    implementation needs, e.g. {@link StridedPlanePacker#scratchSize}.
+     *                    Callers packing every frame pass a pooled one.
+     */
+    void pack(ByteBuffer plane, int rowStride, int pixelStride, int width, int height,
+              ByteBuffer out, byte[] scratch);
+
+}
@@ -0,0 +1,70 @@
+package com.github.dawidkski.scanner.camera.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PlanePacker} for any stride combination. The plane is copied in as few bulk copies as
+ * its layout allows: in one go when it has no padding, a row at a time when only rows are
+ * padded, and for chroma planes with a pixel stride a row is read at once into a scratch array
+ * and then sampled. The scratch array comes from the caller, e.g. from a {@link FramePool}.
+ * It holds no state, so a single instance can be shared between threads.
+ */
+public class StridedPlanePacker implements PlanePacker {
+
+    /**
+     * @return length of the scratch array a row of the plane needs.
+     */
+    public static int scratchSize(int pixelStride, int width) {
+        return pixelStride == 1 ? 0 : (width - 1) * pixelStride + 1;
+    }
+
+    /**
+     * @param scratch array of at least {@link #scratchSize(int, int)} bytes
+     */
+    @Override
+    public void pack(ByteBuffer plane, int rowStride, int pixelStride, int width, int height,
+                     ByteBuffer out, byte[] scratch) {
+        if (rowStride < (width - 1) * pixelStride + 1 || pixelStride < 1) {
+            throw new IllegalArgumentException("Strides " + rowStride + "/" + pixelStride
+                    + " are too small for width " + width);
+        }
+        int start = plane.position();
+        if (pixelStride == 1) {
+            // A view of the plane keeps its position untouched
+            ByteBuffer source = plane.duplicate();
+            if (rowStride == width) {
+                out.put(window(source, start, width * height));
+            } else {
+                for (int row = 0; row < height; row++) {
+                    out.put(window(source, start + row * rowStride, width));
+                }
+            }
+        } else {
+            // Rows are read in bulk and sampled on the heap, which beats reading single bytes
+            // from a direct buffer. Samples are moved to the front of the same array, none of
+            // them is overwritten before it's read.
+            int span = scratchSize(pixelStride, width);
+            if (scratch.length < span) {
+                throw new IllegalArgumentException("Scratch array of " + scratch.length
+                        + " bytes is too small for " + span);
+            }
+            ByteBuffer view = plane.duplicate();
+            for (int i = 0; i < height; i++) {
+                view.position(start + i * rowStride);
+                view.get(scratch, 0, span);
+                for (int j = 1, index = pixelStride; j < width; j++, index += pixelStride) {
+                    scratch[j] = scratch[index];
+                }
+                out.put(scratch, 0, width);
+            }
+        }
+    }
+
+    private static ByteBuffer window(ByteBuffer source, int offset, int length) {
+        source.limit(source.capacity());
+        source.position(offset);
+        source.limit(offset + length);
+        return source;
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.github.dawidkski.scanner.camera.frame;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts YUV 4:2:0 planes, as delivered by the camera, into RGBA Mats taken from a
+ * {@link FramePool}. Planes are plain direct {@link ByteBuffer}s with their strides, so the
+ * conversion doesn't depend on {@code android.media.Image} and runs on any JVM with OpenCV.
+ */
+public class Yuv420Converter {
+
+    private static final StridedPlanePacker packer = new StridedPlanePacker();
+
+    private Yuv420Converter() {
+    }
+
+    /**
+     * Converts planes with interleaved chroma (pixel stride 2). Whether the layout is NV12 or NV21
+     * follows from which of the chroma planes starts first in memory. Chroma planes which don't
+     * share memory are packed with {@link #planarToRgba} instead.
+     */
+    public static Mat interleavedToRgba(ByteBuffer yPlane, int yRowStride,
+                                        ByteBuffer uPlane, int uRowStride,
+                                        ByteBuffer vPlane, int vRowStride,
+                                        int width, int height, FramePool pool) {
+        // Wrappers only reference image planes, releasing them doesn't free any pixel data.
+        // Chroma ones tell the layout as well, no other headers are made for it.
+        Mat uvMat1 = new Mat(height / 2, width / 2, CvType.CV_8UC2, uPlane, uRowStride);
+        Mat uvMat2 = new Mat(height / 2, width / 2, CvType.CV_8UC2, vPlane, vRowStride);
+        long addressDistance = uvMat2.dataAddr() - uvMat1.dataAddr();
+        if (Math.abs(addressDistance) != 1) {
+            uvMat1.release();
+            uvMat2.release();
+            return planarToRgba(yPlane, yRowStride, uPlane, vPlane, uRowStride, 2,
+                    width, height, pool);
+        }
+
+        Mat rgbaMat = pool.acquireMat(height, width, CvType.CV_8UC4);
+        Mat yMat = new Mat(height, width, CvType.CV_8UC1, yPlane, yRowStride);
+        if (addressDistance > 0) {
+            Imgproc.cvtColorTwoPlane(yMat, uvMat1, rgbaMat, Imgproc.COLOR_YUV2RGBA_NV12);
+        } else {
+            Imgproc.cvtColorTwoPlane(yMat, uvMat2, rgbaMat, Imgproc.COLOR_YUV2RGBA_NV21);
+        }
+        yMat.release();
+        uvMat1.release();
+        uvMat2.release();
+        return rgbaMat;
+    }
+
+    /**
+     * @return bytes from the start of the U plane to the start of the V plane, 1 for NV12 and
+     * -1 for NV21 layout of interleaved chroma. Makes two Mat headers, it's meant for checking
+     * a stream once, not for every frame.
+     */
+    public static long chromaDistance(ByteBuffer uPlane, ByteBuffer vPlane) {
+        Mat uMat = new Mat(1, 1, CvType.CV_8UC1, uPlane);
+        Mat vMat = new Mat(1, 1, CvType.CV_8UC1, vPlane);
+        long distance = vMat.dataAddr() - uMat.dataAddr();
+        uMat.release();
+        vMat.release();
+        return distance;
+    }
+
+    /**
+     * Converts planes with separate chroma, they are packed into a single direct I420 buffer
+     * first, which OpenCV reads in place. Positions of the plane buffers don't change.
+     *
+     * @param chromaPixelStride bytes between two chroma samples of a row
+     */
+    public static Mat planarToRgba(ByteBuffer yPlane, int yRowStride,
+                                   ByteBuffer uPlane, ByteBuffer vPlane,
+                                   int chromaRowStride, int chromaPixelStride,
+                                   int width, int height, FramePool pool) {
+        ByteBuffer yuvBuffer = pool.acquireBuffer(width * (height + height / 2));
+        byte[] scratch = pool.acquireArray(
+                StridedPlanePacker.scratchSize(chromaPixelStride, width / 2));
+        packer.pack(yPlane, yRowStride, 1, width, height, yuvBuffer, scratch);
+        packer.pack(uPlane, chromaRowStride, chromaPixelStride, width / 2, height / 2, yuvBuffer,
+                scratch);
+        packer.pack(vPlane, chromaRowStride, chromaPixelStride, width / 2, height / 2, yuvBuffer,
+                scratch);
+        pool.releaseArray(scratch);
+
+        Mat rgbaMat = pool.acquireMat(height, width, CvType.CV_8UC4);
+        Mat yuvMat = new Mat(height + height / 2, width, CvType.CV_8UC1, yuvBuffer);
+        Imgproc.cvtColor(yuvMat, rgbaMat, Imgproc.COLOR_YUV2RGBA_I420, 4);
+        yuvMat.release();
+        pool.releaseBuffer(yuvBuffer);
+        return rgbaMat;
+    }
+
+}
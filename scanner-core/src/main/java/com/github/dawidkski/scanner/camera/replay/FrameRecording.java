@@ -0,0 +1,36 @@
+package com.github.dawidkski.scanner.camera.replay;
+
+/**
+ * Layout of preview frame recordings. All values are big endian.
+ * <pre>
+ *     file header:  magic, version, width, height, chroma layout        (5 ints)
+ *     frame header: timestamp in nanoseconds                            (long)
+ *                   has contour flag                                    (byte)
+ *                   contour x0, y0, ... x3, y3, confidence              (9 floats)
+ *                   row stride, pixel stride and length of Y, U, V      (9 ints)
+ *     frame data:   bytes of the Y, U and V planes, one after another
+ * </pre>
+ * Planes are stored as the camera delivered them, including row padding, so strides of the
+ * original device are kept. Interleaved chroma planes share memory on the device, the layout
+ * in the file header tells which of them starts first, so they can be put together again.
+ */
+public final class FrameRecording {
+
+    public static final int MAGIC = 0x59555652;
+    public static final int VERSION = 1;
+
+    /** U and V are separate planes */
+    public static final int CHROMA_PLANAR = 0;
+    /** U and V interleave in memory with U first */
+    public static final int CHROMA_NV12 = 1;
+    /** U and V interleave in memory with V first */
+    public static final int CHROMA_NV21 = 2;
+
+    public static final int PLANES = 3;
+    static final int FILE_HEADER_SIZE = 5 * 4;
+    static final int FRAME_HEADER_SIZE = 8 + 1 + 9 * 4 + 3 * PLANES * 4;
+
+    private FrameRecording() {
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.github.dawidkski.scanner.camera.replay;
+
+import com.github.dawidkski.scanner.camera.frame.FramePool;
+import com.github.dawidkski.scanner.detection.Quad;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads frames of a {@link FrameRecording} straight from the file channel into pooled direct
+ * buffers, so reading doesn't allocate once the pool holds buffers of the recorded sizes.
+ * Interleaved chroma planes are read into a single buffer with the original overlap, which
+ * keeps conversion of replayed frames on the same path as on the device.
+ */
+public class FrameRecordingReader implements Closeable {
+
+    private final FileChannel channel;
+    private final FramePool pool;
+    private final ByteBuffer header = ByteBuffer.allocate(FrameRecording.FRAME_HEADER_SIZE);
+    private final int width;
+    private final int height;
+    private final int chromaLayout;
+
+    public FrameRecordingReader(File file, FramePool pool) throws IOException {
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        this.pool = pool;
+
+        ByteBuffer fileHeader = ByteBuffer.allocate(FrameRecording.FILE_HEADER_SIZE);
+        try {
+            readFully(fileHeader);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        fileHeader.flip();
+        int magic = fileHeader.getInt();
+        int version = fileHeader.getInt();
+        if (magic != FrameRecording.MAGIC || version != FrameRecording.VERSION) {
+            channel.close();
+            throw new IOException("Not a frame recording of version " + FrameRecording.VERSION
+                    + ": " + file);
+        }
+        width = fileHeader.getInt();
+        height = fileHeader.getInt();
+        chromaLayout = fileHeader.getInt();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return next frame, which must be closed, or null at the end of the recording.
+     */
+    public RecordedFrame next() throws IOException {
+        header.clear();
+        if (!readFully(header)) {
+            return null;
+        }
+        header.flip();
+        long timestamp = header.getLong();
+        boolean hasContour = header.get() != 0;
+        float[] points = new float[2 * Quad.CORNERS];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = header.getFloat();
+        }
+        float confidence = header.getFloat();
+        Quad contour = hasContour ? new Quad(points, confidence) : null;
+
+        int[] rowStrides = new int[FrameRecording.PLANES];
+        int[] pixelStrides = new int[FrameRecording.PLANES];
+        int[] lengths = new int[FrameRecording.PLANES];
+        for (int i = 0; i < FrameRecording.PLANES; i++) {
+            rowStrides[i] = header.getInt();
+            pixelStrides[i] = header.getInt();
+            lengths[i] = header.getInt();
+        }
+
+        ByteBuffer[] planes = new ByteBuffer[FrameRecording.PLANES];
+        ByteBuffer[] pooledBuffers;
+        ByteBuffer luma = pool.acquireBuffer(lengths[0]);
+        planes[0] = luma;
+        if (chromaLayout == FrameRecording.CHROMA_PLANAR) {
+            planes[1] = pool.acquireBuffer(lengths[1]);
+            planes[2] = pool.acquireBuffer(lengths[2]);
+            pooledBuffers = planes.clone();
+            for (ByteBuffer plane : planes) {
+                readPlane(plane);
+            }
+        } else {
+            // Both chroma planes are views of one buffer, one byte apart like on the device
+            int first = chromaLayout == FrameRecording.CHROMA_NV12 ? 1 : 2;
+            int second = 3 - first;
+            ByteBuffer chroma = pool.acquireBuffer(Math.max(lengths[first], lengths[second] + 1));
+            pooledBuffers = new ByteBuffer[]{luma, chroma};
+            readPlane(luma);
+            planes[first] = view(chroma, 0, lengths[first]);
+            planes[second] = view(chroma, 1, lengths[second]);
+            readPlane(planes[1].duplicate());
+            readPlane(planes[2].duplicate());
+        }
+        return new RecordedFrame(width, height, timestamp, contour, planes, rowStrides,
+                pixelStrides, pooledBuffers, pool);
+    }
+
+    /**
+     * Starts reading from the first frame again.
+     */
+    public void rewind() throws IOException {
+        channel.position(FrameRecording.FILE_HEADER_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readPlane(ByteBuffer plane) throws IOException {
+        if (!readFully(plane)) {
+            throw new EOFException("Recording ends in the middle of a frame");
+        }
+        plane.rewind();
+    }
+
+    /**
+     * @return false when the file ended before anything was read.
+     */
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        boolean started = false;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (started) {
+                    throw new EOFException("Recording ends in the middle of a frame");
+                }
+                return false;
+            }
+            started = true;
+        }
+        return true;
+    }
+
+    private static ByteBuffer view(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+}
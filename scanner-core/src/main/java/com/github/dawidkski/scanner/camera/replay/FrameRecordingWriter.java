@@ -0,0 +1,172 @@
+package com.github.dawidkski.scanner.camera.replay;
+
+import com.github.dawidkski.scanner.camera.frame.FramePool;
+import com.github.dawidkski.scanner.detection.Quad;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a {@link FrameRecording} on a thread of its own. Frames are copied into pooled direct
+ * buffers and handed over through a bounded queue, the writer thread puts each of them into
+ * the file with a single gathering write. Recording never blocks the producer: when the writer
+ * falls behind, frames are dropped, so memory stays bounded by the queue length.
+ */
+public class FrameRecordingWriter implements Closeable {
+
+    private static final ByteBuffer[] END = new ByteBuffer[0];
+
+    private final FileChannel channel;
+    private final FramePool pool;
+    private final BlockingQueue<ByteBuffer[]> queue;
+    private final Thread thread;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile IOException error;
+    private boolean closed;
+
+    private final Runnable writeLoop = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                ByteBuffer[] frame;
+                while ((frame = queue.take()) != END) {
+                    writeFrame(frame);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    };
+
+    /**
+     * @param chromaLayout    one of the {@code FrameRecording.CHROMA_*} layouts
+     * @param maxQueuedFrames frames copied but not written yet, above that frames are dropped
+     */
+    public FrameRecordingWriter(File file, int width, int height, int chromaLayout,
+                                int maxQueuedFrames) throws IOException {
+        this.channel = new FileOutputStream(file).getChannel();
+        // Every queued frame holds a header and three planes, one more frame is being written
+        this.pool = new FramePool((maxQueuedFrames + 1) * (FrameRecording.PLANES + 1));
+        this.queue = new ArrayBlockingQueue<>(maxQueuedFrames + 1);
+
+        ByteBuffer header = ByteBuffer.allocate(FrameRecording.FILE_HEADER_SIZE);
+        header.putInt(FrameRecording.MAGIC).putInt(FrameRecording.VERSION)
+                .putInt(width).putInt(height).putInt(chromaLayout);
+        header.flip();
+        try {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        thread = new Thread(writeLoop, "FrameRecorder");
+        thread.start();
+    }
+
+    /**
+     * Copies a frame and queues it for writing. Plane positions don't change, everything from
+     * the position to the limit of a plane is recorded.
+     *
+     * @param contour detected contour in frame coordinates or null
+     * @return false when the frame was dropped because the writer is behind or has failed.
+     */
+    public synchronized boolean write(long timestampNanos, Quad contour, ByteBuffer[] planes, int[] rowStrides,
+                         int[] pixelStrides) {
+        // Frames are added only under the lock, so a free slot can't be taken in the meantime,
+        // the last one is left for the end of the recording
+        if (closed || error != null || queue.remainingCapacity() <= 1) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        ByteBuffer[] frame = new ByteBuffer[FrameRecording.PLANES + 1];
+        ByteBuffer header = pool.acquireBuffer(FrameRecording.FRAME_HEADER_SIZE);
+        header.putLong(timestampNanos);
+        header.put((byte) (contour == null ? 0 : 1));
+        float[] points = contour == null ? new float[2 * Quad.CORNERS] : contour.getPoints();
+        for (float point : points) {
+            header.putFloat(point);
+        }
+        header.putFloat(contour == null ? 0 : contour.getConfidence());
+        for (int i = 0; i < FrameRecording.PLANES; i++) {
+            header.putInt(rowStrides[i]).putInt(pixelStrides[i]).putInt(planes[i].remaining());
+        }
+        header.flip();
+        frame[0] = header;
+
+        for (int i = 0; i < FrameRecording.PLANES; i++) {
+            ByteBuffer copy = pool.acquireBuffer(planes[i].remaining());
+            copy.put(planes[i].duplicate());
+            copy.flip();
+            frame[i + 1] = copy;
+        }
+        queue.add(frame);
+        return true;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the frames still queued and closes the file.
+     *
+     * @throws IOException the first error the writer thread ran into
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        pool.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void writeFrame(ByteBuffer[] frame) {
+        try {
+            if (error == null) {
+                long remaining = 0;
+                for (ByteBuffer buffer : frame) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channel.write(frame);
+                }
+                written.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+        } catch (IOException e) {
+            error = e;
+            dropped.incrementAndGet();
+        } finally {
+            for (ByteBuffer buffer : frame) {
+                pool.releaseBuffer(buffer);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.github.dawidkski.scanner.camera.replay;
+
+import com.github.dawidkski.scanner.camera.frame.FramePool;
+import com.github.dawidkski.scanner.camera.frame.Yuv420Converter;
+import com.github.dawidkski.scanner.detection.Quad;
+
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * YUV 4:2:0 frame read from a recording. Planes are direct buffers taken from a
+ * {@link FramePool}, they go back to it when the frame is closed.
+ */
+public class RecordedFrame implements AutoCloseable {
+
+    private final int width;
+    private final int height;
+    private final long timestampNanos;
+    private final Quad contour;
+    private final ByteBuffer[] planes;
+    private final int[] rowStrides;
+    private final int[] pixelStrides;
+    private final ByteBuffer[] pooledBuffers;
+    private final FramePool pool;
+
+    RecordedFrame(int width, int height, long timestampNanos, Quad contour, ByteBuffer[] planes,
+                  int[] rowStrides, int[] pixelStrides, ByteBuffer[] pooledBuffers,
+                  FramePool pool) {
+        this.width = width;
+        this.height = height;
+        this.timestampNanos = timestampNanos;
+        this.contour = contour;
+        this.planes = planes;
+        this.rowStrides = rowStrides;
+        this.pixelStrides = pixelStrides;
+        this.pooledBuffers = pooledBuffers;
+        this.pool = pool;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return when the camera captured the frame, in the camera clock.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return contour detected on the device, in frame coordinates, or null.
+     */
+    public Quad getContour() {
+        return contour;
+    }
+
+    /**
+     * @param plane 0 for Y, 1 for U and 2 for V
+     */
+    public ByteBuffer getPlane(int plane) {
+        return planes[plane];
+    }
+
+    public int getRowStride(int plane) {
+        return rowStrides[plane];
+    }
+
+    public int getPixelStride(int plane) {
+        return pixelStrides[plane];
+    }
+
+    /**
+     * Converts the frame the same way the camera image would be.
+     *
+     * @return RGBA frame taken from {@code pool}, the caller releases it there.
+     */
+    public Mat toRgba(FramePool pool) {
+        if (pixelStrides[1] == 2) {
+            return Yuv420Converter.interleavedToRgba(planes[0], rowStrides[0],
+                    planes[1], rowStrides[1], planes[2], rowStrides[2], width, height, pool);
+        }
+        return Yuv420Converter.planarToRgba(planes[0], rowStrides[0], planes[1], planes[2],
+                rowStrides[1], pixelStrides[1], width, height, pool);
+    }
+
+    @Override
+    public void close() {
+        for (ByteBuffer buffer : pooledBuffers) {
+            pool.releaseBuffer(buffer);
+        }
+    }
+
+}
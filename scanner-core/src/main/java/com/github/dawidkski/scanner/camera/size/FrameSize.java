@@ -0,0 +1,55 @@
+package com.github.dawidkski.scanner.camera.size;
+
+/**
+ * Width and height of a camera stream. Plain Java counterpart of {@code android.util.Size},
+ * so size selection runs outside of Android as well.
+ */
+public final class FrameSize {
+
+    private final int width;
+    private final int height;
+
+    public FrameSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getPixels() {
+        return (long) width * height;
+    }
+
+    public float getAspectRatio() {
+        return height == 0 ? 0 : (float) width / height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FrameSize)) {
+            return false;
+        }
+        FrameSize other = (FrameSize) o;
+        return width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * width + height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.github.dawidkski.scanner.camera.size;
+
+import java.util.List;
+
+/**
+ * Chooses the size of the preview stream delivered to Java code.
+ * <p>
+ * When the camera draws the preview on its own, the stream is used for analysis only and its
+ * size is the largest one within the analysis pixel budget. Otherwise the same frames are
+ * displayed, so the stream gets the largest size fitting the surface. Either way sizes with
+ * the aspect ratio of the still image are preferred, so a contour found on preview covers
+ * the same area of the picture.
+ */
+public class PreviewSizePolicy {
+
+    // Detection works as well on VGA as on full HD frames, at a fraction of the cost
+    public static final long DEFAULT_ANALYSIS_PIXELS = 640 * 480;
+    public static final float DEFAULT_ASPECT_TOLERANCE = 0.05f;
+
+    private final long analysisPixels;
+    private final float aspectTolerance;
+
+    public PreviewSizePolicy() {
+        this(DEFAULT_ANALYSIS_PIXELS, DEFAULT_ASPECT_TOLERANCE);
+    }
+
+    /**
+     * @param analysisPixels  most pixels of a frame used for analysis only
+     * @param aspectTolerance largest relative difference of aspect ratios considered a match
+     */
+    public PreviewSizePolicy(long analysisPixels, float aspectTolerance) {
+        this.analysisPixels = analysisPixels;
+        this.aspectTolerance = aspectTolerance;
+    }
+
+    /**
+     * Selects the size of a stream used only for analysis.
+     */
+    public Selection selectAnalysisSize(List<FrameSize> supported, FrameSize stillSize) {
+        return select(supported, stillSize, analysisPixels, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Selects the size of a stream which is both analyzed and displayed.
+     *
+     * @param surfaceWidth  width of the surface in sensor orientation
+     * @param surfaceHeight height of the surface in sensor orientation
+     */
+    public Selection selectDisplaySize(List<FrameSize> supported, FrameSize stillSize,
+                                       int surfaceWidth, int surfaceHeight) {
+        return select(supported, stillSize, Long.MAX_VALUE, surfaceWidth, surfaceHeight);
+    }
+
+    private Selection select(List<FrameSize> supported, FrameSize stillSize, long maxPixels,
+                             int maxWidth, int maxHeight) {
+        if (supported.isEmpty()) {
+            throw new IllegalArgumentException("No supported sizes");
+        }
+        float aspect = stillSize == null ? 0 : stillSize.getAspectRatio();
+
+        FrameSize largestFitting = null;
+        FrameSize smallest = null;
+        FrameSize largestFittingAnyAspect = null;
+        FrameSize smallestAnyAspect = null;
+        for (FrameSize size : supported) {
+            boolean fits = size.getPixels() <= maxPixels
+                    && size.getWidth() <= maxWidth && size.getHeight() <= maxHeight;
+            if (fits && isLarger(size, largestFittingAnyAspect)) {
+                largestFittingAnyAspect = size;
+            }
+            if (isSmaller(size, smallestAnyAspect)) {
+                smallestAnyAspect = size;
+            }
+            if (!matchesAspect(size, aspect)) {
+                continue;
+            }
+            if (fits && isLarger(size, largestFitting)) {
+                largestFitting = size;
+            }
+            if (isSmaller(size, smallest)) {
+                smallest = size;
+            }
+        }
+
+        if (largestFitting != null) {
+            return new Selection(largestFitting, "largest fitting size of the still aspect ratio",
+                    supported.size());
+        }
+        if (smallest != null) {
+            return new Selection(smallest, "no size of the still aspect ratio fits, smallest one",
+                    supported.size());
+        }
+        if (largestFittingAnyAspect != null) {
+            return new Selection(largestFittingAnyAspect,
+                    "no size of the still aspect ratio, largest fitting one", supported.size());
+        }
+        return new Selection(smallestAnyAspect, "no size fits, smallest one", supported.size());
+    }
+
+    private boolean matchesAspect(FrameSize size, float aspect) {
+        return aspect == 0 || Math.abs(size.getAspectRatio() - aspect) <= aspectTolerance * aspect;
+    }
+
+    private static boolean isLarger(FrameSize size, FrameSize other) {
+        return other == null || size.getPixels() > other.getPixels();
+    }
+
+    private static boolean isSmaller(FrameSize size, FrameSize other) {
+        return other == null || size.getPixels() < other.getPixels();
+    }
+
+    /**
+     * Selected size together with the reason it was chosen.
+     */
+    public static class Selection {
+
+        private final FrameSize size;
+        private final String reason;
+        private final int candidates;
+
+        Selection(FrameSize size, String reason, int candidates) {
+            this.size = size;
+            this.reason = reason;
+            this.candidates = candidates;
+        }
+
+        public FrameSize getSize() {
+            return size;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return size + " (" + reason + ", out of " + candidates + " sizes)";
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.github.dawidkski.scanner.detection;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Moves corners of an approximate contour (e.g. one found on a preview frame and mapped onto
+ * a still image) onto the closest real corners. Only small windows around each corner are
+ * examined, so the cost doesn't depend on the image resolution.
+ */
+public class ContourRefiner {
+
+    // Search window around every corner, relative to the image diagonal
+    private static final double SEARCH_RADIUS_RATIO = 0.03;
+    private static final int MAX_CANDIDATES = 8;
+    private static final double CANDIDATE_QUALITY = 0.01;
+    private static final Size SUBPIX_WINDOW = new Size(5, 5);
+    private static final Size SUBPIX_ZERO_ZONE = new Size(-1, -1);
+    private static final TermCriteria SUBPIX_CRITERIA =
+            new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.01);
+
+    private final Mat grayPatch = new Mat();
+    private final MatOfPoint candidates = new MatOfPoint();
+    private final MatOfPoint2f corner = new MatOfPoint2f();
+
+    /**
+     * @param image RGB or single channel image the contour belongs to
+     */
+    public Quad refine(Mat image, Quad seed) {
+        int radius = searchRadius(image.cols(), image.rows());
+        float[] refined = seed.getPoints();
+
+        for (int i = 0; i < Quad.CORNERS; i++) {
+            int left = clamp((int) seed.x(i) - radius, image.cols());
+            int top = clamp((int) seed.y(i) - radius, image.rows());
+            int right = clamp((int) seed.x(i) + radius, image.cols());
+            int bottom = clamp((int) seed.y(i) + radius, image.rows());
+            if (right - left < 2 || bottom - top < 2) {
+                continue;
+            }
+            Mat patch = image.submat(new Rect(left, top, right - left, bottom - top));
+            Point found = findCorner(patch, seed.x(i) - left, seed.y(i) - top);
+            patch.release();
+            if (found != null) {
+                refined[2 * i] = (float) (left + found.x);
+                refined[2 * i + 1] = (float) (top + found.y);
+            }
+        }
+        return new Quad(refined, seed.getConfidence());
+    }
+
+    /**
+     * Refines a single corner in a window cut out of the image, for images which are never
+     * in memory as a whole. The window should reach {@link #searchRadius} around the seed.
+     *
+     * @return corner in window coordinates or null when there's no corner in the window.
+     */
+    public Point refineCorner(Mat window, double seedX, double seedY) {
+        return findCorner(window, seedX, seedY);
+    }
+
+    /**
+     * @return how far from the seed corners are looked for in an image of the given size.
+     */
+    public static int searchRadius(int imageWidth, int imageHeight) {
+        return (int) (SEARCH_RADIUS_RATIO * Math.hypot(imageWidth, imageHeight));
+    }
+
+    public void release() {
+        grayPatch.release();
+        candidates.release();
+        corner.release();
+    }
+
+    private Point findCorner(Mat patch, double seedX, double seedY) {
+        if (patch.channels() == 1) {
+            patch.copyTo(grayPatch);
+        } else {
+            Imgproc.cvtColor(patch, grayPatch, Imgproc.COLOR_RGB2GRAY);
+        }
+
+        Imgproc.goodFeaturesToTrack(grayPatch, candidates, MAX_CANDIDATES, CANDIDATE_QUALITY,
+                grayPatch.cols() / 8.0);
+        Point closest = null;
+        double closestDistance = Double.MAX_VALUE;
+        for (Point candidate : candidates.toArray()) {
+            double distance = Math.hypot(candidate.x - seedX, candidate.y - seedY);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = candidate;
+            }
+        }
+        if (closest == null) {
+            return null;
+        }
+
+        corner.fromArray(closest);
+        Imgproc.cornerSubPix(grayPatch, corner, SUBPIX_WINDOW, SUBPIX_ZERO_ZONE, SUBPIX_CRITERIA);
+        return corner.toArray()[0];
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+}
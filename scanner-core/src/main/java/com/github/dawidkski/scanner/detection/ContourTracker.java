@@ -0,0 +1,137 @@
+package com.github.dawidkski.scanner.detection;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+import org.opencv.video.Video;
+
+/**
+ * Runs full {@link DocumentDetector} detection only every few frames and in between follows
+ * the corners of the last contour with pyramidal Lucas-Kanade optical flow, which only looks
+ * at small windows around the four corners. Full detection is forced as soon as tracking
+ * becomes unreliable. Reported contour is exponentially smoothed to keep it steady on screen.
+ * <p>
+ * Like the detector, a tracker keeps state between frames and must be used from a single thread.
+ */
+public class ContourTracker {
+
+    private static final int DETECTION_INTERVAL = 10;
+    private static final Size FLOW_WINDOW = new Size(21, 21);
+    private static final int FLOW_PYRAMID_LEVELS = 2;
+    private static final float MAX_FLOW_ERROR = 20f;
+    private static final double MAX_AREA_CHANGE = 0.2;
+    private static final float SMOOTHING = 0.5f;
+    // Jumps bigger than this (in pixels) are not smoothed, contour just follows them
+    private static final float MAX_SMOOTHED_SHIFT = 30f;
+
+    private final DocumentDetector detector;
+    private final Mat previousGray = new Mat();
+    private final MatOfPoint2f previousPoints = new MatOfPoint2f();
+    private final MatOfPoint2f nextPoints = new MatOfPoint2f();
+    private final MatOfByte status = new MatOfByte();
+    private final MatOfFloat error = new MatOfFloat();
+
+    private final float[] tracked = new float[2 * Quad.CORNERS];
+    private final float[] smoothed = new float[2 * Quad.CORNERS];
+    private final byte[] statusValues = new byte[Quad.CORNERS];
+    private final float[] errorValues = new float[Quad.CORNERS];
+
+    private boolean hasContour;
+    private float confidence;
+    private int framesSinceDetection;
+    private long detections;
+    private long trackedFrames;
+
+    public ContourTracker(DocumentDetector detector) {
+        this.detector = detector;
+        previousPoints.alloc(Quad.CORNERS);
+    }
+
+    /**
+     * @return smoothed contour in coordinates of {@code gray} or null when there is no document.
+     */
+    public Quad track(Mat gray) {
+        boolean tracking = hasContour
+                && framesSinceDetection < DETECTION_INTERVAL
+                && previousGray.rows() == gray.rows() && previousGray.cols() == gray.cols()
+                && followCorners(gray);
+
+        if (tracking) {
+            framesSinceDetection++;
+            trackedFrames++;
+        } else {
+            Quad detected = detector.detect(gray);
+            framesSinceDetection = 0;
+            detections++;
+            if (detected == null) {
+                hasContour = false;
+                return null;
+            }
+            float[] points = detected.getPoints();
+            System.arraycopy(points, 0, tracked, 0, points.length);
+            confidence = detected.getConfidence();
+        }
+
+        smooth(!hasContour);
+        hasContour = true;
+        gray.copyTo(previousGray);
+        return new Quad(smoothed.clone(), confidence);
+    }
+
+    public void reset() {
+        hasContour = false;
+        framesSinceDetection = 0;
+    }
+
+    /**
+     * @return share of frames on which full detection was skipped.
+     */
+    public float getSkipRatio() {
+        long total = detections + trackedFrames;
+        return total == 0 ? 0 : (float) trackedFrames / total;
+    }
+
+    public void release() {
+        previousGray.release();
+        previousPoints.release();
+        nextPoints.release();
+        status.release();
+        error.release();
+    }
+
+    private boolean followCorners(Mat gray) {
+        double previousArea = Quad.area(tracked);
+        previousPoints.put(0, 0, tracked);
+        Video.calcOpticalFlowPyrLK(previousGray, gray, previousPoints, nextPoints, status, error,
+                FLOW_WINDOW, FLOW_PYRAMID_LEVELS);
+        status.get(0, 0, statusValues);
+        error.get(0, 0, errorValues);
+        for (int i = 0; i < Quad.CORNERS; i++) {
+            if (statusValues[i] == 0 || errorValues[i] > MAX_FLOW_ERROR) {
+                return false;
+            }
+        }
+
+        nextPoints.get(0, 0, tracked);
+        // Corners drifting apart or collapsing means we've lost the document
+        double area = Quad.area(tracked);
+        return Math.abs(area - previousArea) <= MAX_AREA_CHANGE * previousArea;
+    }
+
+    private void smooth(boolean restart) {
+        float maxShift = 0;
+        for (int i = 0; i < tracked.length; i++) {
+            maxShift = Math.max(maxShift, Math.abs(tracked[i] - smoothed[i]));
+        }
+        if (restart || maxShift > MAX_SMOOTHED_SHIFT) {
+            System.arraycopy(tracked, 0, smoothed, 0, tracked.length);
+            return;
+        }
+        for (int i = 0; i < tracked.length; i++) {
+            smoothed[i] += SMOOTHING * (tracked[i] - smoothed[i]);
+        }
+    }
+
+}
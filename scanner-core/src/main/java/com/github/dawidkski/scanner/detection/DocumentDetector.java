@@ -0,0 +1,108 @@
+package com.github.dawidkski.scanner.detection;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the largest convex quadrilateral in a single channel image. Its confidence is the ratio
+ * between the area of the detected edge contour and the area of the quadrilateral fitted to it.
+ * Intermediate Mats are reused between calls, so a detector must not be shared between threads.
+ */
+public class DocumentDetector {
+
+    private static final Size BLUR_KERNEL = new Size(5, 5);
+    private static final double CANNY_LOW_THRESHOLD = 50;
+    private static final double CANNY_HIGH_THRESHOLD = 150;
+    private static final double APPROX_EPSILON = 0.02;
+    private static final double MIN_AREA_RATIO = 0.1;
+
+    private final Mat blurred = new Mat();
+    private final Mat edges = new Mat();
+    private final Mat hierarchy = new Mat();
+    private final Mat dilateKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(3, 3));
+    private final MatOfPoint2f contour2f = new MatOfPoint2f();
+    private final MatOfPoint2f approx = new MatOfPoint2f();
+    private final MatOfPoint approxInt = new MatOfPoint();
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private final float[] corners = new float[2 * Quad.CORNERS];
+
+    /**
+     * @return detected contour in the coordinates of the given image or null when nothing was found.
+     */
+    public Quad detect(Mat gray) {
+        Imgproc.GaussianBlur(gray, blurred, BLUR_KERNEL, 0);
+        Imgproc.Canny(blurred, edges, CANNY_LOW_THRESHOLD, CANNY_HIGH_THRESHOLD);
+        Imgproc.dilate(edges, edges, dilateKernel);
+
+        contours.clear();
+        Imgproc.findContours(edges, contours, hierarchy, Imgproc.RETR_EXTERNAL,
+                Imgproc.CHAIN_APPROX_SIMPLE);
+
+        double bestArea = gray.total() * MIN_AREA_RATIO;
+        float confidence = 0;
+        boolean found = false;
+        for (MatOfPoint contour : contours) {
+            double area = Imgproc.contourArea(contour);
+            if (area > bestArea && isQuadrilateral(contour)) {
+                bestArea = area;
+                found = true;
+                double quadArea = Imgproc.contourArea(approx);
+                confidence = (float) (Math.min(area, quadArea) / Math.max(area, quadArea));
+                orderCorners(approx.toArray(), corners);
+            }
+            contour.release();
+        }
+        contours.clear();
+
+        return found ? new Quad(corners.clone(), confidence) : null;
+    }
+
+    public void release() {
+        blurred.release();
+        edges.release();
+        hierarchy.release();
+        dilateKernel.release();
+        contour2f.release();
+        approx.release();
+        approxInt.release();
+    }
+
+    private boolean isQuadrilateral(MatOfPoint contour) {
+        contour.convertTo(contour2f, CvType.CV_32FC2);
+        double perimeter = Imgproc.arcLength(contour2f, true);
+        Imgproc.approxPolyDP(contour2f, approx, APPROX_EPSILON * perimeter, true);
+        if (approx.total() != Quad.CORNERS) {
+            return false;
+        }
+        approx.convertTo(approxInt, CvType.CV_32SC2);
+        return Imgproc.isContourConvex(approxInt);
+    }
+
+    private static void orderCorners(Point[] points, float[] out) {
+        // Top-left has the smallest x + y, bottom-right the largest,
+        // top-right has the smallest y - x and bottom-left the largest
+        int tl = 0, tr = 0, br = 0, bl = 0;
+        for (int i = 1; i < points.length; i++) {
+            double sum = points[i].x + points[i].y;
+            double diff = points[i].y - points[i].x;
+            if (sum < points[tl].x + points[tl].y) tl = i;
+            if (sum > points[br].x + points[br].y) br = i;
+            if (diff < points[tr].y - points[tr].x) tr = i;
+            if (diff > points[bl].y - points[bl].x) bl = i;
+        }
+        int[] order = {tl, tr, br, bl};
+        for (int i = 0; i < Quad.CORNERS; i++) {
+            out[2 * i] = (float) points[order[i]].x;
+            out[2 * i + 1] = (float) points[order[i]].y;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.github.dawidkski.scanner.detection;
+
+import java.util.Arrays;
+
+/**
+ * Document contour as four corners ordered top-left, top-right, bottom-right, bottom-left.
+ * Coordinates are kept in a flat array: x0, y0, x1, y1, ...
+ * Confidence in range [0, 1] tells how well the detected edges match the quadrilateral.
+ */
+public class Quad {
+
+    public static final int CORNERS = 4;
+
+    private final float[] points;
+    private final float confidence;
+
+    public Quad(float[] points) {
+        this(points, 1f);
+    }
+
+    public Quad(float[] points, float confidence) {
+        if (points.length != 2 * CORNERS) {
+            throw new IllegalArgumentException("Quad needs " + 2 * CORNERS + " coordinates");
+        }
+        this.points = points;
+        this.confidence = confidence;
+    }
+
+    public float x(int corner) {
+        return points[2 * corner];
+    }
+
+    public float y(int corner) {
+        return points[2 * corner + 1];
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return copy of the coordinates, safe to modify.
+     */
+    public float[] getPoints() {
+        return Arrays.copyOf(points, points.length);
+    }
+
+    public Quad scale(float factor) {
+        float[] scaled = new float[points.length];
+        for (int i = 0; i < points.length; i++) {
+            scaled[i] = points[i] * factor;
+        }
+        return new Quad(scaled, confidence);
+    }
+
+    public Quad scale(float factorX, float factorY) {
+        float[] scaled = new float[points.length];
+        for (int i = 0; i < CORNERS; i++) {
+            scaled[2 * i] = points[2 * i] * factorX;
+            scaled[2 * i + 1] = points[2 * i + 1] * factorY;
+        }
+        return new Quad(scaled, confidence);
+    }
+
+    public Quad translate(float dx, float dy) {
+        float[] translated = new float[points.length];
+        for (int i = 0; i < CORNERS; i++) {
+            translated[2 * i] = points[2 * i] + dx;
+            translated[2 * i + 1] = points[2 * i + 1] + dy;
+        }
+        return new Quad(translated, confidence);
+    }
+
+    /**
+     * Maps the quad into an image rotated clockwise by a multiple of 90 degrees.
+     * Corners are reordered, so the first one stays the top-left one of the rotated image.
+     *
+     * @param width  width of the image before rotation
+     * @param height height of the image before rotation
+     */
+    public Quad rotate(int degrees, int width, int height) {
+        int turns = ((degrees / 90) % CORNERS + CORNERS) % CORNERS;
+        float[] rotated = new float[points.length];
+        for (int i = 0; i < CORNERS; i++) {
+            float x = x(i);
+            float y = y(i);
+            int target = 2 * ((i + turns) % CORNERS);
+            switch (turns) {
+                case 1:
+                    rotated[target] = height - y;
+                    rotated[target + 1] = x;
+                    break;
+                case 2:
+                    rotated[target] = width - x;
+                    rotated[target + 1] = height - y;
+                    break;
+                case 3:
+                    rotated[target] = y;
+                    rotated[target + 1] = width - x;
+                    break;
+                default:
+                    rotated[target] = x;
+                    rotated[target + 1] = y;
+                    break;
+            }
+        }
+        return new Quad(rotated, confidence);
+    }
+
+    public double area() {
+        return area(points);
+    }
+
+    /**
+     * @param points corners laid out like the coordinates of a quad
+     * @return area of the quadrilateral, without making a {@link Quad} of them.
+     */
+    public static double area(float[] points) {
+        // Shoelace formula
+        double sum = 0;
+        for (int i = 0; i < CORNERS; i++) {
+            int next = (i + 1) % CORNERS;
+            sum += (double) points[2 * i] * points[2 * next + 1]
+                    - (double) points[2 * next] * points[2 * i + 1];
+        }
+        return Math.abs(sum) / 2;
+    }
+
+    @Override
+    public String toString() {
+        return "Quad" + Arrays.toString(points) + " confidence=" + confidence;
+    }
+
+}
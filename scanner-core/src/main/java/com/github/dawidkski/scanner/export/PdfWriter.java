@@ -0,0 +1,262 @@
+package com.github.dawidkski.scanner.export;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes a PDF document of scanned pages a page at a time. Every page is a JPEG image which is
+ * encoded or copied straight into the output, its length is written after it as an object of its
+ * own, so nothing of a page is kept once it's added. Only object offsets are remembered until
+ * the cross-reference table is written by {@link #close()}.
+ * <p>
+ * Pages fit into A4 with the aspect ratio of the scan, portrait or landscape like the scan.
+ * Images with more pixels than the page resolution needs are downscaled, already encoded JPEG
+ * images are embedded as they are.
+ */
+public class PdfWriter implements Closeable {
+
+    // A4 in points, 1/72 inch
+    private static final double PAGE_LONG_SIDE = 841.89;
+    private static final double PAGE_SHORT_SIDE = 595.28;
+    private static final double POINTS_PER_INCH = 72;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    // Catalog and page tree are written last, their numbers are reserved
+    private static final int CATALOG = 1;
+    private static final int PAGE_TREE = 2;
+
+    private final CountingStream out;
+    // Offset of every object by its number, the first one is unused
+    private final List<Long> offsets = new ArrayList<>();
+    private final List<Integer> pages = new ArrayList<>();
+
+    public PdfWriter(OutputStream out) throws IOException {
+        this.out = new CountingStream(out);
+        offsets.add(0L);
+        offsets.add(0L);
+        offsets.add(0L);
+        write("%PDF-1.4\n");
+        // Binary comment, tells transfer tools the file isn't text
+        this.out.write(new byte[]{'%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n'});
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * @return factor an image has to be downscaled by to the page resolution, 1 when it has
+     * no more pixels than the resolution needs.
+     */
+    public static double getResampleFactor(int width, int height, int dpi) {
+        double pageWidth = width * pageScale(width, height);
+        return Math.min(1, dpi * pageWidth / POINTS_PER_INCH / width);
+    }
+
+    /**
+     * @param image RGB, RGBA or gray page, the writer doesn't take its ownership
+     */
+    public void addPage(Mat image, PageSettings settings) throws IOException {
+        Mat pixels = image;
+        double resample = getResampleFactor(image.cols(), image.rows(), settings.dpi);
+        if (resample < 1) {
+            pixels = new Mat();
+            Imgproc.resize(image, pixels, new Size(), resample, resample, Imgproc.INTER_AREA);
+        }
+        try {
+            int imageObject = beginImage(pixels.cols(), pixels.rows(), pixels.channels());
+            long length = new ScanEncoder(ScanEncoder.Format.JPEG, settings.quality)
+                    .encode(pixels, out);
+            endPage(imageObject, length, image.cols(), image.rows());
+        } finally {
+            if (pixels != image) {
+                pixels.release();
+            }
+        }
+    }
+
+    /**
+     * Adds an already encoded JPEG image as it is, it's neither decoded nor resampled.
+     *
+     * @param channels 1 for a gray image, 3 for a colour one
+     */
+    public void addJpegPage(InputStream jpeg, int width, int height, int channels)
+            throws IOException {
+        int imageObject = beginImage(width, height, channels);
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long length = 0;
+        int read;
+        while ((read = jpeg.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+            length += read;
+        }
+        endPage(imageObject, length, width, height);
+    }
+
+    /**
+     * Starts the image object, its JPEG data follows.
+     *
+     * @return number of the image object.
+     */
+    private int beginImage(int width, int height, int channels) throws IOException {
+        int imageObject = beginObject();
+        int lengthObject = imageObject + 1;
+        write("<< /Type /XObject /Subtype /Image /Width " + width + " /Height " + height
+                + " /ColorSpace " + (channels == 1 ? "/DeviceGray" : "/DeviceRGB")
+                + " /BitsPerComponent 8 /Filter /DCTDecode /Length " + lengthObject
+                + " 0 R >>\nstream\n");
+        return imageObject;
+    }
+
+    /**
+     * Ends the image object and writes the page showing it.
+     *
+     * @param width  width of the image before it was resampled, gives the page its aspect ratio
+     * @param height height of the image before it was resampled
+     */
+    private void endPage(int imageObject, long length, int width, int height)
+            throws IOException {
+        double scale = pageScale(width, height);
+        double pageWidth = width * scale;
+        double pageHeight = height * scale;
+        write("\nendstream\nendobj\n");
+
+        beginObject();
+        write(length + "\nendobj\n");
+
+        String content = String.format(Locale.US, "q %.2f 0 0 %.2f 0 0 cm /Page Do Q\n",
+                pageWidth, pageHeight);
+        int contentObject = beginObject();
+        write("<< /Length " + content.length() + " >>\nstream\n" + content
+                + "endstream\nendobj\n");
+
+        int pageObject = beginObject();
+        write(String.format(Locale.US, "<< /Type /Page /Parent %d 0 R /MediaBox [0 0 %.2f %.2f]"
+                        + " /Resources << /XObject << /Page %d 0 R >> >> /Contents %d 0 R >>\n"
+                        + "endobj\n",
+                PAGE_TREE, pageWidth, pageHeight, imageObject, contentObject));
+        pages.add(pageObject);
+    }
+
+    /**
+     * Finishes the document and closes the output.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            offsets.set(PAGE_TREE, out.count);
+            StringBuilder kids = new StringBuilder();
+            for (int page : pages) {
+                kids.append(page).append(" 0 R ");
+            }
+            write(PAGE_TREE + " 0 obj\n<< /Type /Pages /Kids [ " + kids + "] /Count "
+                    + pages.size() + " >>\nendobj\n");
+            offsets.set(CATALOG, out.count);
+            write(CATALOG + " 0 obj\n<< /Type /Catalog /Pages " + PAGE_TREE + " 0 R >>\nendobj\n");
+
+            long xref = out.count;
+            write("xref\n0 " + offsets.size() + "\n0000000000 65535 f \n");
+            for (int i = 1; i < offsets.size(); i++) {
+                write(String.format(Locale.US, "%010d 00000 n \n", offsets.get(i)));
+            }
+            write("trailer\n<< /Size " + offsets.size() + " /Root " + CATALOG + " 0 R >>\n"
+                    + "startxref\n" + xref + "\n%%EOF\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return points per pixel of an image fit into the page.
+     */
+    private static double pageScale(int width, int height) {
+        boolean landscape = width > height;
+        double maxWidth = landscape ? PAGE_LONG_SIDE : PAGE_SHORT_SIDE;
+        double maxHeight = landscape ? PAGE_SHORT_SIDE : PAGE_LONG_SIDE;
+        return Math.min(maxWidth / width, maxHeight / height);
+    }
+
+    /**
+     * @return number of the object started at the current offset.
+     */
+    private int beginObject() throws IOException {
+        int number = offsets.size();
+        offsets.add(out.count);
+        write(number + " 0 obj\n");
+        return number;
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public static class PageSettings {
+
+        private final int dpi;
+        private final int quality;
+
+        /**
+         * @param dpi     resolution of the page image, images with less are kept as they are
+         * @param quality JPEG quality of the page image, when it's encoded by the writer
+         */
+        public PageSettings(int dpi, int quality) {
+            this.dpi = dpi;
+            this.quality = quality;
+        }
+
+        public int getDpi() {
+            return dpi;
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+
+    }
+
+    /**
+     * Keeps track of the offset of the output.
+     */
+    private static class CountingStream extends OutputStream {
+
+        private final OutputStream out;
+        private long count;
+
+        CountingStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+    }
+
+}
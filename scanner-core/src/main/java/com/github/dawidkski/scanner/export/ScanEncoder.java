@@ -0,0 +1,164 @@
+package com.github.dawidkski.scanner.export;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a scan straight from its Mat as JPEG or WebP and streams the result into
+ * an {@link OutputStream}. Encoded bytes stay in native memory, they are copied to the stream
+ * a chunk at a time. With a size limit, the highest quality whose result fits is found by
+ * a binary search.
+ * <p>
+ * Not thread safe, an encoder is meant for one export at a time.
+ */
+public class ScanEncoder {
+
+    public enum Format {
+        JPEG("image/jpeg", "jpg", Imgcodecs.IMWRITE_JPEG_QUALITY),
+        WEBP("image/webp", "webp", Imgcodecs.IMWRITE_WEBP_QUALITY);
+
+        private final String mimeType;
+        private final String extension;
+        private final int qualityFlag;
+
+        Format(String mimeType, String extension, int qualityFlag) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+            this.qualityFlag = qualityFlag;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+    }
+
+    // Size limit doesn't push the quality any lower, text would suffer too much
+    public static final int MIN_QUALITY = 40;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Format format;
+    private final int quality;
+    private final long maxBytes;
+    private int lastQuality;
+
+    public ScanEncoder(Format format, int quality) {
+        this(format, quality, 0);
+    }
+
+    /**
+     * @param quality  1 to 100
+     * @param maxBytes size the encoded image should fit in, 0 for no limit. It's exceeded when
+     *                 even {@link #MIN_QUALITY} doesn't fit.
+     */
+    public ScanEncoder(Format format, int quality, long maxBytes) {
+        this.format = format;
+        this.quality = quality;
+        this.maxBytes = maxBytes;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return quality the last image was encoded with.
+     */
+    public int getLastQuality() {
+        return lastQuality;
+    }
+
+    /**
+     * @param image RGB, RGBA or gray scan
+     * @return number of bytes written.
+     */
+    public long encode(Mat image, OutputStream out) throws IOException {
+        Mat bgr = toBgr(image);
+        MatOfByte encoded = encode(bgr, quality);
+        lastQuality = quality;
+        if (maxBytes > 0 && encoded.total() > maxBytes) {
+            encoded.release();
+            encoded = null;
+            int low = MIN_QUALITY;
+            int high = quality - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                MatOfByte candidate = encode(bgr, middle);
+                if (candidate.total() <= maxBytes) {
+                    if (encoded != null) {
+                        encoded.release();
+                    }
+                    encoded = candidate;
+                    lastQuality = middle;
+                    low = middle + 1;
+                } else {
+                    candidate.release();
+                    high = middle - 1;
+                }
+            }
+            if (encoded == null) {
+                encoded = encode(bgr, MIN_QUALITY);
+                lastQuality = MIN_QUALITY;
+            }
+        }
+        if (bgr != image) {
+            bgr.release();
+        }
+
+        try {
+            return write(encoded, out);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private MatOfByte encode(Mat bgr, int quality) {
+        MatOfByte encoded = new MatOfByte();
+        MatOfInt params = new MatOfInt(format.qualityFlag, quality);
+        boolean success = Imgcodecs.imencode("." + format.extension, bgr, encoded, params);
+        params.release();
+        if (!success) {
+            encoded.release();
+            throw new IllegalStateException("Can't encode " + format);
+        }
+        return encoded;
+    }
+
+    private static long write(MatOfByte encoded, OutputStream out) throws IOException {
+        int size = (int) encoded.total();
+        byte[] chunk = new byte[Math.min(CHUNK_SIZE, size)];
+        for (int offset = 0; offset < size; offset += chunk.length) {
+            int length = Math.min(chunk.length, size - offset);
+            if (length < chunk.length) {
+                chunk = new byte[length];
+            }
+            encoded.get(offset, 0, chunk);
+            out.write(chunk, 0, length);
+        }
+        return size;
+    }
+
+    /**
+     * @return the image itself when it's gray, otherwise its BGR copy the codecs expect.
+     */
+    private static Mat toBgr(Mat image) {
+        if (image.channels() == 1) {
+            return image;
+        }
+        Mat bgr = new Mat();
+        Imgproc.cvtColor(image, bgr,
+                image.channels() == 4 ? Imgproc.COLOR_RGBA2BGR : Imgproc.COLOR_RGB2BGR);
+        return bgr;
+    }
+
+}
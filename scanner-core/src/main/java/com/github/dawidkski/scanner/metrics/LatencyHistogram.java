@@ -0,0 +1,103 @@
+package com.github.dawidkski.scanner.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed, exponentially growing buckets: four per doubling, from 10 us
+ * up to about 35 s. Percentiles are reported as the upper bound of their bucket, so they
+ * are never more than about 19% off. Anything slower is counted in an overflow bucket, which
+ * reports the maximum. Recording is lock free and doesn't allocate, it's safe to call from
+ * any thread on the hot path.
+ */
+public class LatencyHistogram {
+
+    // 10 us * 2^(87 / 4) is about 35 s
+    private static final int BUCKETS = 88;
+    private static final long FIRST_BOUND_NANOS = 10_000;
+    private static final long[] BOUNDS = new long[BUCKETS];
+
+    static {
+        for (int i = 0; i < BUCKETS; i++) {
+            BOUNDS[i] = Math.round(FIRST_BOUND_NANOS * Math.pow(2, i / 4.0));
+        }
+    }
+
+    // One more bucket takes everything above the last bound
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // Another thread raised the maximum in the meantime, check again
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMs() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxMs() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * @param percentile in range (0, 100]
+     * @return upper bound of the bucket holding the percentile in milliseconds, the maximum
+     * when it's in the overflow bucket, 0 when empty.
+     */
+    public double getPercentileMs(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], maxNanos.get()) / 1e6;
+            }
+        }
+        return getMaxMs();
+    }
+
+    public void reset() {
+        for (int i = 0; i <= BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    private static int bucket(long nanos) {
+        if (nanos > BOUNDS[BUCKETS - 1]) {
+            return BUCKETS;
+        }
+        // Binary search for the first bound not below the value
+        int low = 0;
+        int high = BUCKETS - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (BOUNDS[middle] < nanos) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.github.dawidkski.scanner.scan;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Post-processing of a scan applied to horizontal bands of it, see {@link ParallelWarp}.
+ * A row of the result may depend on rows up to {@link #getHalo()} above and below it, bands are
+ * extended by that many rows, so the result doesn't depend on how the scan is split.
+ */
+public interface Enhancement {
+
+    /**
+     * @return rows of context a row of the result depends on in each direction.
+     */
+    int getHalo();
+
+    /**
+     * @param rgb RGB band of a scan, or a gray one for enhancements which say they take it
+     * @param out result of the same size and type
+     */
+    void apply(Mat rgb, Mat out);
+
+    /**
+     * Linear stretch of every channel, {@code out = gain * rgb + offset}.
+     */
+    class Contrast implements Enhancement {
+
+        private final double gain;
+        private final double offset;
+
+        public Contrast(double gain, double offset) {
+            this.gain = gain;
+            this.offset = offset;
+        }
+
+        @Override
+        public int getHalo() {
+            return 0;
+        }
+
+        @Override
+        public void apply(Mat rgb, Mat out) {
+            rgb.convertTo(out, -1, gain, offset);
+        }
+
+    }
+
+    /**
+     * Black and white scan, a pixel is white when it's brighter than the mean of its
+     * neighbourhood less {@code c}. Adapts to uneven lighting of the page. Takes a gray band as
+     * well, which it binarizes without converting colours.
+     */
+    class Binarization implements Enhancement {
+
+        private final int blockSize;
+        private final double c;
+
+        /**
+         * @param blockSize odd side of the neighbourhood
+         */
+        public Binarization(int blockSize, double c) {
+            this.blockSize = blockSize;
+            this.c = c;
+        }
+
+        @Override
+        public int getHalo() {
+            return blockSize / 2;
+        }
+
+        @Override
+        public void apply(Mat rgb, Mat out) {
+            if (rgb.channels() == 1) {
+                Imgproc.adaptiveThreshold(rgb, out, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C,
+                        Imgproc.THRESH_BINARY, blockSize, c);
+                return;
+            }
+            Mat gray = new Mat();
+            Imgproc.cvtColor(rgb, gray, Imgproc.COLOR_RGB2GRAY);
+            Imgproc.adaptiveThreshold(gray, gray, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C,
+                    Imgproc.THRESH_BINARY, blockSize, c);
+            Imgproc.cvtColor(gray, out, Imgproc.COLOR_GRAY2RGB);
+            gray.release();
+        }
+
+    }
+
+    /**
+     * {@link Contrast} stretch followed by saturation raised by {@code saturationGain}.
+     */
+    class ColorBoost implements Enhancement {
+
+        private final Contrast contrast;
+        private final double saturationGain;
+
+        public ColorBoost(double gain, double offset, double saturationGain) {
+            this.contrast = new Contrast(gain, offset);
+            this.saturationGain = saturationGain;
+        }
+
+        @Override
+        public int getHalo() {
+            return 0;
+        }
+
+        @Override
+        public void apply(Mat rgb, Mat out) {
+            Mat hsv = new Mat();
+            contrast.apply(rgb, hsv);
+            Imgproc.cvtColor(hsv, hsv, Imgproc.COLOR_RGB2HSV);
+            List<Mat> channels = new ArrayList<>();
+            Core.split(hsv, channels);
+            channels.get(1).convertTo(channels.get(1), -1, saturationGain, 0);
+            Core.merge(channels, hsv);
+            Imgproc.cvtColor(hsv, out, Imgproc.COLOR_HSV2RGB);
+            for (Mat channel : channels) {
+                channel.release();
+            }
+            hsv.release();
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.github.dawidkski.scanner.scan;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Document filters of a scan. Filters are built from stages shared between them: the gray scan
+ * and the gray scan divided by an estimate of the page's illumination, which {@link
+ * Filter#GRAYSCALE} shows and {@link Filter#BLACK_AND_WHITE} binarizes. Stages and results are
+ * cached, switching to a filter computes only what no earlier filter computed, e.g. black and
+ * white after grayscale only binarizes. Per-pixel filters are applied band by band on the workers
+ * of a {@link ParallelWarp}.
+ * <p>
+ * Filters are built for the size of the scan, so a screen sized copy previews them as they look
+ * on the full resolution scan, which is filtered only when it's saved.
+ * Not thread safe.
+ */
+public class FilterPipeline {
+
+    public enum Filter {
+        /** Scan as it is, RGB */
+        ORIGINAL,
+        /** Gray with uneven lighting of the page evened out, single channel */
+        GRAYSCALE,
+        /** Black text on white paper, single channel */
+        BLACK_AND_WHITE,
+        /** Contrast and saturation raised, RGB */
+        COLOR_BOOST
+    }
+
+    // Illumination is estimated on a copy downscaled to this side, closing removes text from it
+    // and the median blur what closing leaves of pictures
+    private static final int ILLUMINATION_MAX_SIDE = 256;
+    private static final Size ILLUMINATION_KERNEL = new Size(9, 9);
+    private static final int ILLUMINATION_BLUR = 15;
+    // Side of the binarization neighbourhood is the longer side of the scan divided by this,
+    // it spans a few lines of text at any resolution
+    private static final int BINARIZATION_BLOCKS = 40;
+    private static final double BINARIZATION_C = 10;
+    private static final double BOOST_GAIN = 1.2;
+    private static final double BOOST_OFFSET = -20;
+    private static final double SATURATION_GAIN = 1.4;
+
+    private final Mat scan;
+    private final ParallelWarp warp;
+    private Mat gray;
+    private Mat normalized;
+    private Mat blackAndWhite;
+    private Mat colorBoost;
+
+    /**
+     * @param scan RGB scan, the pipeline doesn't take its ownership
+     * @param warp filters are applied on its workers
+     */
+    public FilterPipeline(Mat scan, ParallelWarp warp) {
+        this.scan = scan;
+        this.warp = warp;
+    }
+
+    /**
+     * @return filtered scan, owned by the pipeline and valid until it's released.
+     * @throws java.util.concurrent.CancellationException when the warp is shut down
+     */
+    public Mat apply(Filter filter) {
+        switch (filter) {
+            case GRAYSCALE:
+                return normalized();
+            case BLACK_AND_WHITE:
+                if (blackAndWhite == null) {
+                    int blockSize = Math.max(3,
+                            Math.max(scan.cols(), scan.rows()) / BINARIZATION_BLOCKS | 1);
+                    blackAndWhite = warp.enhance(normalized(),
+                            new Enhancement.Binarization(blockSize, BINARIZATION_C));
+                }
+                return blackAndWhite;
+            case COLOR_BOOST:
+                if (colorBoost == null) {
+                    colorBoost = warp.enhance(scan, new Enhancement.ColorBoost(
+                            BOOST_GAIN, BOOST_OFFSET, SATURATION_GAIN));
+                }
+                return colorBoost;
+            default:
+                return scan;
+        }
+    }
+
+    public void release() {
+        gray = release(gray);
+        normalized = release(normalized);
+        blackAndWhite = release(blackAndWhite);
+        colorBoost = release(colorBoost);
+    }
+
+    private Mat gray() {
+        if (gray == null) {
+            gray = new Mat();
+            Imgproc.cvtColor(scan, gray, Imgproc.COLOR_RGB2GRAY);
+        }
+        return gray;
+    }
+
+    /**
+     * Gray scan divided by the brightness of the paper around every pixel, which is white where
+     * there's nothing printed whatever the lighting was.
+     */
+    private Mat normalized() {
+        if (normalized == null) {
+            Mat source = gray();
+            double factor = Math.min(1,
+                    (double) ILLUMINATION_MAX_SIDE / Math.max(source.cols(), source.rows()));
+            Mat illumination = new Mat();
+            Imgproc.resize(source, illumination, new Size(), factor, factor, Imgproc.INTER_AREA);
+            Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, ILLUMINATION_KERNEL);
+            Imgproc.morphologyEx(illumination, illumination, Imgproc.MORPH_CLOSE, kernel);
+            Imgproc.medianBlur(illumination, illumination, ILLUMINATION_BLUR);
+            Imgproc.resize(illumination, illumination, source.size(), 0, 0,
+                    Imgproc.INTER_LINEAR);
+            normalized = new Mat();
+            Core.divide(source, illumination, normalized, 255);
+            kernel.release();
+            illumination.release();
+        }
+        return normalized;
+    }
+
+    private static Mat release(Mat mat) {
+        if (mat != null) {
+            mat.release();
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.github.dawidkski.scanner.scan;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Image read a region at a time, so that it doesn't need to be in memory as a whole,
+ * e.g. a big JPEG file decoded region by region.
+ */
+public interface ImageSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @param region part of the image, within its bounds
+     * @return RGB pixels of the region, the caller releases them.
+     */
+    Mat read(Rect region);
+
+    /**
+     * @return RGB copy of the whole image with the longer side at least {@code minSide}
+     * (unless the image is smaller), but not much longer. The caller releases it.
+     */
+    Mat readScaled(int minSide);
+
+    /**
+     * Source of an image which is already in memory.
+     */
+    class MatSource implements ImageSource {
+
+        private final Mat image;
+
+        public MatSource(Mat image) {
+            this.image = image;
+        }
+
+        @Override
+        public int getWidth() {
+            return image.cols();
+        }
+
+        @Override
+        public int getHeight() {
+            return image.rows();
+        }
+
+        @Override
+        public Mat read(Rect region) {
+            return image.submat(region);
+        }
+
+        @Override
+        public Mat readScaled(int minSide) {
+            Mat scaled = new Mat();
+            double factor = Math.min(1, (double) minSide / Math.max(image.cols(), image.rows()));
+            Imgproc.resize(image, scaled, new Size(), factor, factor, Imgproc.INTER_AREA);
+            return scaled;
+        }
+
+    }
+
+}
@@ -0,0 +1,276 @@
+package com.github.dawidkski.scanner.scan;
+
+import com.github.dawidkski.scanner.detection.Quad;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Perspective warp followed by an optional {@link Enhancement}, or an enhancement of a scan
+ * which is already warped, split into horizontal bands of the output which are processed on
+ * a pool of workers. Every band is warped and enhanced on its
+ * own and written into its rows of the output, so the result is the same as of
+ * {@link PerspectiveWarp#warp} followed by the enhancement of the whole scan, no matter how many
+ * workers there are or in which order they finish.
+ * <p>
+ * One warp or enhancement runs at a time, {@link #getBusyNanos()} against
+ * {@link #getElapsedNanos()} of the last one tells how much the workers sped it up.
+ */
+public class ParallelWarp {
+
+    // Bands per worker, more of them even out workers which get less CPU time
+    private static final int BANDS_PER_WORKER = 2;
+    // Narrower bands cost more in per band overhead than they gain
+    private static final int MIN_BAND_ROWS = 64;
+
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final AtomicLong busyNanos = new AtomicLong();
+    private long elapsedNanos;
+
+    /**
+     * @param parallelism number of workers, with 1 bands are processed on the calling thread
+     */
+    public ParallelWarp(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.executor = this.parallelism == 1
+                ? null : Executors.newFixedThreadPool(this.parallelism, new WorkerFactory());
+    }
+
+    /**
+     * @return a worker per available core.
+     */
+    public static int defaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param contour     document contour in coordinates of {@code image}
+     * @param enhancement applied to the warped scan or null
+     * @return RGB scan, the caller releases it.
+     * @throws CancellationException when the calling thread is interrupted while waiting or
+     *                               the warp is shut down
+     */
+    public synchronized Mat warp(final Mat image, Quad contour, final Enhancement enhancement) {
+        final Size size = PerspectiveWarp.outputSize(contour);
+        final Mat transform = PerspectiveWarp.transform(contour, size);
+        final Mat scan = new Mat((int) size.height, (int) size.width, CvType.CV_8UC3);
+        try {
+            processBands(scan, new Band() {
+                @Override
+                public void process(int top, int bottom) {
+                    warpBand(image, transform, scan, top, bottom, enhancement);
+                }
+            });
+        } finally {
+            transform.release();
+        }
+        return scan;
+    }
+
+    /**
+     * Enhances a scan which is already warped, band by band like {@link #warp}.
+     *
+     * @param scan scan of a type the enhancement takes, it's left as it is
+     * @return result of the type of the scan, the caller releases it.
+     * @throws CancellationException when the calling thread is interrupted while waiting or
+     *                               the warp is shut down
+     */
+    public synchronized Mat enhance(final Mat scan, final Enhancement enhancement) {
+        final Mat enhanced = new Mat(scan.rows(), scan.cols(), scan.type());
+        processBands(enhanced, new Band() {
+            @Override
+            public void process(int top, int bottom) {
+                enhanceBand(scan, enhanced, top, bottom, enhancement);
+            }
+        });
+        return enhanced;
+    }
+
+    /**
+     * @return wall time of the last warp.
+     */
+    public synchronized long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return time workers spent on bands of the last warp, summed over all of them.
+     */
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    /**
+     * Stops the workers, a running warp still finishes bands which have started.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            // Bands which never started must not leave the warp waiting for them
+            for (Runnable dropped : executor.shutdownNow()) {
+                ((Future<?>) dropped).cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Splits rows of {@code out} into bands and waits for the workers to process all of them,
+     * {@code out} is released when they don't.
+     */
+    private void processBands(Mat out, final Band band) {
+        long start = System.nanoTime();
+        busyNanos.set(0);
+        int height = out.rows();
+        int bands = Math.max(1, Math.min(parallelism * BANDS_PER_WORKER, height / MIN_BAND_ROWS));
+        int bandRows = (height + bands - 1) / bands;
+
+        List<Future<?>> futures = new ArrayList<>();
+        boolean completed = false;
+        try {
+            for (int top = 0; top < height; top += bandRows) {
+                final int bandTop = top;
+                final int bandBottom = Math.min(height, top + bandRows);
+                Runnable task = new Runnable() {
+                    @Override
+                    public void run() {
+                        long bandStart = System.nanoTime();
+                        band.process(bandTop, bandBottom);
+                        busyNanos.addAndGet(System.nanoTime() - bandStart);
+                    }
+                };
+                if (executor == null) {
+                    task.run();
+                } else {
+                    futures.add(executor.submit(task));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Warp interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Warp of a band failed", e.getCause());
+        } catch (RejectedExecutionException e) {
+            throw new CancellationException("Warp shut down");
+        } finally {
+            // Bands still running write into the output, it can be released only after them
+            awaitUninterruptibly(futures);
+            if (!completed) {
+                out.release();
+            }
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    private static void warpBand(Mat image, Mat transform, Mat scan, int top, int bottom,
+                                 Enhancement enhancement) {
+        int halo = enhancement == null ? 0 : enhancement.getHalo();
+        int warpTop = Math.max(0, top - halo);
+        int warpBottom = Math.min(scan.rows(), bottom + halo);
+        Mat rows = scan.rowRange(top, bottom);
+        // Warped rows go straight into the scan unless the enhancement needs another buffer
+        Mat warped = enhancement == null ? rows
+                : new Mat(warpBottom - warpTop, scan.cols(), CvType.CV_8UC3);
+
+        Mat shift = Mat.eye(3, 3, CvType.CV_64F);
+        shift.put(1, 2, -warpTop);
+        Mat bandTransform = new Mat();
+        Mat noDelta = new Mat();
+        Core.gemm(shift, transform, 1, noDelta, 0, bandTransform);
+        Imgproc.warpPerspective(image, warped, bandTransform, warped.size(),
+                Imgproc.INTER_LINEAR);
+        shift.release();
+        bandTransform.release();
+        noDelta.release();
+
+        if (enhancement != null) {
+            Mat enhanced = new Mat();
+            enhancement.apply(warped, enhanced);
+            Mat inner = enhanced.rowRange(top - warpTop, bottom - warpTop);
+            inner.copyTo(rows);
+            inner.release();
+            enhanced.release();
+            warped.release();
+        }
+        rows.release();
+    }
+
+    private static void enhanceBand(Mat scan, Mat enhanced, int top, int bottom,
+                                    Enhancement enhancement) {
+        int halo = enhancement.getHalo();
+        int sourceTop = Math.max(0, top - halo);
+        int sourceBottom = Math.min(scan.rows(), bottom + halo);
+        Mat source = scan.rowRange(sourceTop, sourceBottom);
+        Mat band = new Mat();
+        enhancement.apply(source, band);
+        Mat inner = band.rowRange(top - sourceTop, bottom - sourceTop);
+        Mat rows = enhanced.rowRange(top, bottom);
+        inner.copyTo(rows);
+        rows.release();
+        inner.release();
+        band.release();
+        source.release();
+    }
+
+    private static void awaitUninterruptibly(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    // Reported by the warp already
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Band {
+
+        void process(int top, int bottom);
+
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Warp-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
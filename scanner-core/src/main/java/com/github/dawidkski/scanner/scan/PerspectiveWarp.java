@@ -0,0 +1,61 @@
+package com.github.dawidkski.scanner.scan;
+
+import com.github.dawidkski.scanner.detection.Quad;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Straightens a document enclosed by a known contour.
+ */
+public class PerspectiveWarp {
+
+    private PerspectiveWarp() {
+    }
+
+    public static Mat warp(Mat image, Quad contour) {
+        Size size = outputSize(contour);
+        Mat transform = transform(contour, size);
+        Mat scan = new Mat();
+        Imgproc.warpPerspective(image, scan, transform, size, Imgproc.INTER_LINEAR);
+        transform.release();
+        return scan;
+    }
+
+    /**
+     * Output is as wide as the longer of top and bottom edges and as high as the longer side edge.
+     */
+    public static Size outputSize(Quad contour) {
+        double width = Math.max(edge(contour, 0, 1), edge(contour, 3, 2));
+        double height = Math.max(edge(contour, 0, 3), edge(contour, 1, 2));
+        return new Size(Math.round(width), Math.round(height));
+    }
+
+    /**
+     * @return 3x3 transform from image coordinates to output coordinates.
+     */
+    public static Mat transform(Quad contour, Size size) {
+        MatOfPoint2f source = new MatOfPoint2f(
+                new Point(contour.x(0), contour.y(0)),
+                new Point(contour.x(1), contour.y(1)),
+                new Point(contour.x(2), contour.y(2)),
+                new Point(contour.x(3), contour.y(3)));
+        MatOfPoint2f destination = new MatOfPoint2f(
+                new Point(0, 0),
+                new Point(size.width, 0),
+                new Point(size.width, size.height),
+                new Point(0, size.height));
+        Mat transform = Imgproc.getPerspectiveTransform(source, destination);
+        source.release();
+        destination.release();
+        return transform;
+    }
+
+    private static double edge(Quad contour, int from, int to) {
+        return Math.hypot(contour.x(to) - contour.x(from), contour.y(to) - contour.y(from));
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.github.dawidkski.scanner.scan;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes an RGB image into PNG strip by strip, as a {@link TiledWarp.Sink}, so that neither
+ * the image nor its encoded form is ever in memory as a whole. Rows use the "up" filter, which
+ * suits scanned documents with their large flat areas.
+ * <p>
+ * {@link TiledWarp.Sink#write} reports I/O errors unchecked, as {@link IllegalStateException}.
+ */
+public class PngStripWriter implements TiledWarp.Sink, Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int FILTER_UP = 2;
+    // Compressed data is split into IDAT chunks of this size
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final ChunkStream chunks;
+    private final DeflaterOutputStream compressed;
+    private final byte[] previousRow;
+    private final byte[] row;
+    private final byte[] filtered;
+    private int writtenRows;
+
+    public PngStripWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compressionLevel {@link Deflater} level, lower is faster
+     */
+    public PngStripWriter(OutputStream out, int width, int height, int compressionLevel)
+            throws IOException {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.deflater = new Deflater(compressionLevel);
+        this.chunks = new ChunkStream("IDAT");
+        this.compressed = new DeflaterOutputStream(chunks, deflater, CHUNK_SIZE);
+        this.previousRow = new byte[3 * width];
+        this.row = new byte[3 * width];
+        this.filtered = new byte[3 * width + 1];
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = COLOR_TYPE_RGB;
+        writeChunk("IHDR", header, header.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param strip RGB rows, the next ones of the image
+     */
+    @Override
+    public void write(Mat strip, int top) {
+        if (top != writtenRows || strip.type() != CvType.CV_8UC3 || strip.cols() != width) {
+            throw new IllegalArgumentException("Expected " + width + " RGB pixels wide rows from "
+                    + writtenRows + ", got " + strip + " at " + top);
+        }
+        try {
+            for (int i = 0; i < strip.rows(); i++) {
+                strip.get(i, 0, row);
+                filtered[0] = FILTER_UP;
+                for (int j = 0; j < row.length; j++) {
+                    filtered[j + 1] = (byte) (row[j] - previousRow[j]);
+                }
+                compressed.write(filtered);
+                System.arraycopy(row, 0, previousRow, 0, row.length);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write PNG rows", e);
+        }
+        writtenRows += strip.rows();
+    }
+
+    /**
+     * Finishes the image and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writtenRows == height) {
+                compressed.finish();
+                chunks.flush();
+                writeChunk("IEND", new byte[0], 0);
+            }
+        } finally {
+            deflater.end();
+            out.close();
+        }
+        if (writtenRows != height) {
+            throw new IOException("Image ended after " + writtenRows + " of " + height + " rows");
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] field = new byte[4];
+        putInt(field, 0, length);
+        out.write(field);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        putInt(field, 0, (int) crc.getValue());
+        out.write(field);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Wraps whatever is written into chunks of the given type.
+     */
+    private class ChunkStream extends OutputStream {
+
+        private final String type;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int length;
+
+        ChunkStream(String type) {
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                int copied = Math.min(count, buffer.length - length);
+                System.arraycopy(bytes, offset, buffer, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+                if (length == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (length > 0) {
+                writeChunk(type, buffer, length);
+                length = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.github.dawidkski.scanner.scan;
+
+import com.github.dawidkski.scanner.detection.ContourRefiner;
+import com.github.dawidkski.scanner.detection.Quad;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Perspective warp which never holds the whole source or output image. The output is produced
+ * in horizontal strips, which are split into tiles until the part of the source a tile maps
+ * from is at most {@link #REGION_PER_STRIP} times the strip size. Only that part is read from
+ * an {@link ImageSource}, the finished strip goes to a {@link Sink}. Peak memory is given by
+ * the strip size and not by the size of the image, even for a heavily skewed page, result is
+ * the same as of {@link PerspectiveWarp#warp}.
+ * <p>
+ * A warp reuses its strip buffer, so it must not be shared between threads.
+ */
+public class TiledWarp {
+
+    public static final long DEFAULT_STRIP_PIXELS = 1 << 20;
+    // Bound of the source region read for a tile, in strip sizes
+    public static final int REGION_PER_STRIP = 4;
+    // Source pixels around a tile's footprint which bilinear interpolation reaches
+    private static final int MARGIN = 2;
+    // Tiles aren't split below this side, whatever their region is
+    private static final int MIN_TILE_SIDE = 16;
+
+    private final long maxStripPixels;
+    private final Mat strip = new Mat();
+    private final MatOfPoint2f tileCorners = new MatOfPoint2f();
+    private final MatOfPoint2f sourceCorners = new MatOfPoint2f();
+    private final Mat regionTransform = new Mat();
+    private final Mat tileTransform = new Mat();
+    private final Mat noDelta = new Mat();
+
+    public TiledWarp() {
+        this(DEFAULT_STRIP_PIXELS);
+    }
+
+    /**
+     * @param maxStripPixels upper bound of the size of an output strip
+     */
+    public TiledWarp(long maxStripPixels) {
+        this.maxStripPixels = maxStripPixels;
+    }
+
+    /**
+     * @param contour document contour in source coordinates
+     * @param size    size of the output, e.g. {@link PerspectiveWarp#outputSize(Quad)}
+     */
+    public void warp(ImageSource source, Quad contour, Size size, Sink sink) {
+        int width = (int) size.width;
+        int height = (int) size.height;
+        int stripRows = (int) Math.max(1, Math.min(height, maxStripPixels / Math.max(1, width)));
+        Mat transform = PerspectiveWarp.transform(contour, size);
+        Mat inverse = transform.inv();
+        Rect bounds = new Rect(0, 0, source.getWidth(), source.getHeight());
+
+        for (int top = 0; top < height; top += stripRows) {
+            int rows = Math.min(stripRows, height - top);
+            strip.create(rows, width, CvType.CV_8UC3);
+            warpTile(source, transform, inverse, bounds, new Rect(0, 0, width, rows), top);
+            sink.write(strip, top);
+        }
+        transform.release();
+        inverse.release();
+    }
+
+    /**
+     * Warps a tile of the strip starting at output row {@code top}, splits it in two when its
+     * source region is too big.
+     *
+     * @param tile in strip coordinates
+     */
+    private void warpTile(ImageSource source, Mat transform, Mat inverse, Rect bounds, Rect tile,
+                          int top) {
+        int tileTop = top + tile.y;
+        tileCorners.fromArray(new Point(tile.x, tileTop), new Point(tile.x + tile.width, tileTop),
+                new Point(tile.x + tile.width, tileTop + tile.height),
+                new Point(tile.x, tileTop + tile.height));
+        Core.perspectiveTransform(tileCorners, sourceCorners, inverse);
+        Rect region = intersection(Imgproc.boundingRect(sourceCorners), MARGIN, bounds);
+
+        if (region != null && region.area() > REGION_PER_STRIP * maxStripPixels
+                && Math.max(tile.width, tile.height) > MIN_TILE_SIDE) {
+            Rect first;
+            Rect second;
+            if (tile.width >= tile.height) {
+                int half = tile.width / 2;
+                first = new Rect(tile.x, tile.y, half, tile.height);
+                second = new Rect(tile.x + half, tile.y, tile.width - half, tile.height);
+            } else {
+                int half = tile.height / 2;
+                first = new Rect(tile.x, tile.y, tile.width, half);
+                second = new Rect(tile.x, tile.y + half, tile.width, tile.height - half);
+            }
+            warpTile(source, transform, inverse, bounds, first, top);
+            warpTile(source, transform, inverse, bounds, second, top);
+            return;
+        }
+
+        Mat target = strip.submat(tile);
+        if (region == null) {
+            // Tile maps from outside of the image entirely, like the border of a full warp
+            target.setTo(new Scalar(0, 0, 0));
+        } else {
+            Mat pixels = source.read(region);
+            // Region coordinates -> source coordinates -> output -> tile coordinates
+            Mat shift = translation(region.x, region.y);
+            Mat unshift = translation(-tile.x, -tileTop);
+            Core.gemm(transform, shift, 1, noDelta, 0, regionTransform);
+            Core.gemm(unshift, regionTransform, 1, noDelta, 0, tileTransform);
+            Imgproc.warpPerspective(pixels, target, tileTransform, tile.size(),
+                    Imgproc.INTER_LINEAR);
+            shift.release();
+            unshift.release();
+            pixels.release();
+        }
+        target.release();
+    }
+
+    public void release() {
+        strip.release();
+        tileCorners.release();
+        sourceCorners.release();
+        regionTransform.release();
+        tileTransform.release();
+        noDelta.release();
+    }
+
+    /**
+     * Refines contour corners like {@link ContourRefiner#refine(Mat, Quad)}, reading only
+     * the search windows around them from the source.
+     */
+    public static Quad refine(ImageSource source, Quad seed, ContourRefiner refiner) {
+        int radius = ContourRefiner.searchRadius(source.getWidth(), source.getHeight());
+        Rect bounds = new Rect(0, 0, source.getWidth(), source.getHeight());
+        float[] refined = seed.getPoints();
+        for (int i = 0; i < Quad.CORNERS; i++) {
+            Rect window = intersection(new Rect((int) seed.x(i) - radius, (int) seed.y(i) - radius,
+                    2 * radius, 2 * radius), 0, bounds);
+            if (window == null || window.width < 2 || window.height < 2) {
+                continue;
+            }
+            Mat pixels = source.read(window);
+            Point found = refiner.refineCorner(pixels, seed.x(i) - window.x, seed.y(i) - window.y);
+            pixels.release();
+            if (found != null) {
+                refined[2 * i] = (float) (window.x + found.x);
+                refined[2 * i + 1] = (float) (window.y + found.y);
+            }
+        }
+        return new Quad(refined, seed.getConfidence());
+    }
+
+    /**
+     * @return {@code rect} grown by {@code margin} and clipped to {@code bounds}, null when empty.
+     */
+    private static Rect intersection(Rect rect, int margin, Rect bounds) {
+        int left = Math.max(bounds.x, rect.x - margin);
+        int top = Math.max(bounds.y, rect.y - margin);
+        int right = Math.min(bounds.x + bounds.width, rect.x + rect.width + margin);
+        int bottom = Math.min(bounds.y + bounds.height, rect.y + rect.height + margin);
+        if (right <= left || bottom <= top) {
+            return null;
+        }
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    private static Mat translation(double x, double y) {
+        Mat translation = Mat.eye(3, 3, CvType.CV_64F);
+        translation.put(0, 2, x);
+        translation.put(1, 2, y);
+        return translation;
+    }
+
+    public interface Sink {
+
+        /**
+         * @param strip output rows starting at row {@code top}, valid only during the call
+         */
+        void write(Mat strip, int top);
+
+    }
+
+    /**
+     * Sink collecting strips in a Mat of the output size, e.g. one backed by a mapped file.
+     */
+    public static class MatSink implements Sink {
+
+        private final Mat output;
+
+        public MatSink(Mat output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(Mat strip, int top) {
+            Mat rows = output.rowRange(top, top + strip.rows());
+            strip.copyTo(rows);
+            rows.release();
+        }
+
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.github.dawidkski.scanner.camera.frame;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StridedPlanePackerTest {
+
+    private static final int WIDTH = 13;
+    private static final int HEIGHT = 7;
+
+    private final StridedPlanePacker packer = new StridedPlanePacker();
+
+    @Test
+    public void packsEveryStrideCombination() {
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+            for (int padding : new int[]{0, 1, 16}) {
+                for (int position : new int[]{0, 5}) {
+                    for (boolean direct : new boolean[]{false, true}) {
+                        assertPacked(pixelStride, padding, position, direct);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void packsWithScratchArray() {
+        for (int padding : new int[]{0, 16}) {
+            int rowStride = (WIDTH - 1) * 2 + 1 + padding;
+            ByteBuffer plane = plane(rowStride, 2, 0);
+            ByteBuffer out = ByteBuffer.allocate(WIDTH * HEIGHT);
+            // Longer than needed and filled with garbage, like a pooled one
+            byte[] scratch = new byte[StridedPlanePacker.scratchSize(2, WIDTH) + 8];
+            new Random(7).nextBytes(scratch);
+            packer.pack(plane, rowStride, 2, WIDTH, HEIGHT, out, scratch);
+            assertArrayEquals(expected(plane, rowStride, 2, 0), out.array());
+        }
+    }
+
+    @Test
+    public void appendsAfterOutputPosition() {
+        ByteBuffer plane = plane(WIDTH, 1, 0);
+        ByteBuffer out = ByteBuffer.allocate(3 + WIDTH * HEIGHT);
+        out.position(3);
+        packer.pack(plane, WIDTH, 1, WIDTH, HEIGHT, out, scratch(1));
+        assertEquals(out.capacity(), out.position());
+        byte[] packed = new byte[WIDTH * HEIGHT];
+        System.arraycopy(out.array(), 3, packed, 0, packed.length);
+        assertArrayEquals(expected(plane, WIDTH, 1, 0), packed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRowStrideShorterThanRow() {
+        packer.pack(plane(WIDTH, 2, 0), WIDTH, 2, WIDTH, HEIGHT,
+                ByteBuffer.allocate(WIDTH * HEIGHT), scratch(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallScratchArray() {
+        int rowStride = WIDTH * 2;
+        packer.pack(plane(rowStride, 2, 0), rowStride, 2, WIDTH, HEIGHT,
+                ByteBuffer.allocate(WIDTH * HEIGHT), new byte[WIDTH]);
+    }
+
+    private void assertPacked(int pixelStride, int padding, int position, boolean direct) {
+        String layout = "pixel stride " + pixelStride + ", padding " + padding
+                + ", position " + position + (direct ? ", direct" : ", heap");
+        int rowStride = (WIDTH - 1) * pixelStride + 1 + padding;
+        ByteBuffer plane = plane(rowStride, pixelStride, position);
+        ByteBuffer out = direct
+                ? ByteBuffer.allocateDirect(WIDTH * HEIGHT) : ByteBuffer.allocate(WIDTH * HEIGHT);
+
+        packer.pack(plane, rowStride, pixelStride, WIDTH, HEIGHT, out, scratch(pixelStride));
+
+        assertEquals(layout, position, plane.position());
+        assertEquals(layout, WIDTH * HEIGHT, out.position());
+        byte[] packed = new byte[WIDTH * HEIGHT];
+        out.rewind();
+        out.get(packed);
+        assertArrayEquals(layout, expected(plane, rowStride, pixelStride, position), packed);
+    }
+
+    private static byte[] scratch(int pixelStride) {
+        return new byte[StridedPlanePacker.scratchSize(pixelStride, WIDTH)];
+    }
+
+    /**
+     * @return direct plane of random samples positioned at {@code position}. Like camera planes,
+     * the last row ends with its last sample, it isn't padded to the row stride.
+     */
+    private static ByteBuffer plane(int rowStride, int pixelStride, int position) {
+        byte[] bytes = new byte[position + rowStride * (HEIGHT - 1)
+                + (WIDTH - 1) * pixelStride + 1];
+        new Random(42).nextBytes(bytes);
+        ByteBuffer plane = ByteBuffer.allocateDirect(bytes.length);
+        plane.put(bytes);
+        plane.position(position);
+        return plane;
+    }
+
+    /**
+     * @return samples of the plane picked one by one.
+     */
+    private static byte[] expected(ByteBuffer plane, int rowStride, int pixelStride,
+                                   int position) {
+        byte[] samples = new byte[WIDTH * HEIGHT];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int column = 0; column < WIDTH; column++) {
+                samples[row * WIDTH + column] =
+                        plane.get(position + row * rowStride + column * pixelStride);
+            }
+        }
+        return samples;
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.github.dawidkski.scanner.camera.frame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class Yuv420ConverterTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int CHROMA_WIDTH = WIDTH / 2;
+    private static final int CHROMA_HEIGHT = HEIGHT / 2;
+
+    private final FramePool pool = new FramePool(2);
+    private byte[] y;
+    private byte[] u;
+    private byte[] v;
+    private Mat expected;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        y = new byte[WIDTH * HEIGHT];
+        u = new byte[CHROMA_WIDTH * CHROMA_HEIGHT];
+        v = new byte[CHROMA_WIDTH * CHROMA_HEIGHT];
+        random.nextBytes(y);
+        random.nextBytes(u);
+        random.nextBytes(v);
+
+        Mat i420 = new Mat(HEIGHT + HEIGHT / 2, WIDTH, CvType.CV_8UC1);
+        i420.put(0, 0, y);
+        i420.put(HEIGHT, 0, u);
+        i420.put(HEIGHT + CHROMA_HEIGHT / 2, 0, v);
+        expected = new Mat();
+        Imgproc.cvtColor(i420, expected, Imgproc.COLOR_YUV2RGBA_I420, 4);
+        i420.release();
+    }
+
+    @After
+    public void tearDown() {
+        expected.release();
+        pool.clear();
+    }
+
+    @Test
+    public void convertsNv12() {
+        for (int padding : new int[]{0, 16}) {
+            ByteBuffer chroma = interleaved(CHROMA_WIDTH * 2 + padding, u, v);
+            ByteBuffer uPlane = slice(chroma, 0);
+            ByteBuffer vPlane = slice(chroma, 1);
+            assertEquals(1, Yuv420Converter.chromaDistance(uPlane, vPlane));
+
+            int rowStride = WIDTH + padding;
+            Mat rgba = Yuv420Converter.interleavedToRgba(luma(rowStride), rowStride,
+                    uPlane, CHROMA_WIDTH * 2 + padding, vPlane, CHROMA_WIDTH * 2 + padding,
+                    WIDTH, HEIGHT, pool);
+            assertConverted("NV12, padding " + padding, rgba);
+        }
+    }
+
+    @Test
+    public void convertsNv21() {
+        for (int padding : new int[]{0, 16}) {
+            ByteBuffer chroma = interleaved(CHROMA_WIDTH * 2 + padding, v, u);
+            ByteBuffer uPlane = slice(chroma, 1);
+            ByteBuffer vPlane = slice(chroma, 0);
+            assertEquals(-1, Yuv420Converter.chromaDistance(uPlane, vPlane));
+
+            int rowStride = WIDTH + padding;
+            Mat rgba = Yuv420Converter.interleavedToRgba(luma(rowStride), rowStride,
+                    uPlane, CHROMA_WIDTH * 2 + padding, vPlane, CHROMA_WIDTH * 2 + padding,
+                    WIDTH, HEIGHT, pool);
+            assertConverted("NV21, padding " + padding, rgba);
+        }
+    }
+
+    @Test
+    public void convertsPlanar() {
+        for (int padding : new int[]{0, 16}) {
+            int chromaRowStride = CHROMA_WIDTH + padding;
+            Mat rgba = Yuv420Converter.planarToRgba(luma(WIDTH + padding), WIDTH + padding,
+                    strided(u, chromaRowStride, 1), strided(v, chromaRowStride, 1),
+                    chromaRowStride, 1, WIDTH, HEIGHT, pool);
+            assertConverted("planar, padding " + padding, rgba);
+        }
+    }
+
+    @Test
+    public void convertsSeparateInterleavedPlanes() {
+        // Pixel stride 2, but U and V planes don't share memory, they are packed instead
+        int chromaRowStride = CHROMA_WIDTH * 2 + 16;
+        Mat rgba = Yuv420Converter.interleavedToRgba(luma(WIDTH), WIDTH,
+                strided(u, chromaRowStride, 2), chromaRowStride,
+                strided(v, chromaRowStride, 2), chromaRowStride, WIDTH, HEIGHT, pool);
+        assertConverted("separate planes", rgba);
+    }
+
+    private void assertConverted(String layout, Mat rgba) {
+        assertEquals(layout, HEIGHT, rgba.rows());
+        assertEquals(layout, WIDTH, rgba.cols());
+        Mat difference = new Mat();
+        Core.absdiff(rgba, expected, difference);
+        assertEquals(layout, 0, Core.countNonZero(difference.reshape(1)));
+        difference.release();
+        pool.releaseMat(rgba);
+    }
+
+    private ByteBuffer luma(int rowStride) {
+        return strided(y, WIDTH, HEIGHT, rowStride, 1);
+    }
+
+    private static ByteBuffer strided(byte[] samples, int rowStride, int pixelStride) {
+        return strided(samples, CHROMA_WIDTH, CHROMA_HEIGHT, rowStride, pixelStride);
+    }
+
+    /**
+     * @return direct plane with the samples laid out with the strides, its last row isn't
+     * padded, like camera planes.
+     */
+    private static ByteBuffer strided(byte[] samples, int width, int height, int rowStride,
+                                      int pixelStride) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * (height - 1)
+                + (width - 1) * pixelStride + 1);
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                plane.put(row * rowStride + column * pixelStride, samples[row * width + column]);
+            }
+        }
+        return plane;
+    }
+
+    /**
+     * @return chroma plane with samples of {@code first} and {@code second} interleaved,
+     * its last row ends with the last sample of {@code second}.
+     */
+    private static ByteBuffer interleaved(int rowStride, byte[] first, byte[] second) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * (CHROMA_HEIGHT - 1)
+                + CHROMA_WIDTH * 2);
+        for (int row = 0; row < CHROMA_HEIGHT; row++) {
+            for (int column = 0; column < CHROMA_WIDTH; column++) {
+                int index = row * rowStride + column * 2;
+                plane.put(index, first[row * CHROMA_WIDTH + column]);
+                plane.put(index + 1, second[row * CHROMA_WIDTH + column]);
+            }
+        }
+        return plane;
+    }
+
+    /**
+     * @return plane starting {@code offset} bytes into the buffer and sharing its memory,
+     * like the U and V planes of an interleaved camera image.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        return view.slice();
+    }
+
+}
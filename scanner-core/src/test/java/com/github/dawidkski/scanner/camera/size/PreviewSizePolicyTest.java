@@ -0,0 +1,85 @@
+package com.github.dawidkski.scanner.camera.size;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreviewSizePolicyTest {
+
+    private static final FrameSize STILL_4_3 = new FrameSize(4000, 3000);
+
+    private final PreviewSizePolicy policy = new PreviewSizePolicy();
+
+    @Test
+    public void analysisTakesLargestSizeOfStillAspectWithinBudget() {
+        List<FrameSize> supported = sizes(1920, 1080, 1280, 720, 800, 600, 640, 480, 640, 360,
+                320, 240);
+        assertEquals(new FrameSize(640, 480),
+                policy.selectAnalysisSize(supported, STILL_4_3).getSize());
+    }
+
+    @Test
+    public void analysisTakesLargestSizeWithinBudgetWhenNoneHasStillAspect() {
+        List<FrameSize> supported = sizes(1920, 1080, 1280, 720, 640, 360, 320, 180);
+        assertEquals(new FrameSize(640, 360),
+                policy.selectAnalysisSize(supported, STILL_4_3).getSize());
+    }
+
+    @Test
+    public void analysisTakesSmallestSizeOfStillAspectWhenNoneFitsBudget() {
+        List<FrameSize> supported = sizes(1920, 1080, 1600, 1200, 1280, 960, 1280, 720);
+        assertEquals(new FrameSize(1280, 960),
+                policy.selectAnalysisSize(supported, STILL_4_3).getSize());
+    }
+
+    @Test
+    public void analysisTakesSmallestSizeWhenNothingFitsBudgetOrAspect() {
+        List<FrameSize> supported = sizes(1920, 1080, 1280, 720);
+        assertEquals(new FrameSize(1280, 720),
+                policy.selectAnalysisSize(supported, STILL_4_3).getSize());
+    }
+
+    @Test
+    public void displayTakesLargestSizeFittingSurface() {
+        List<FrameSize> supported = sizes(1920, 1440, 1440, 1080, 1280, 960, 1920, 1080);
+        assertEquals(new FrameSize(1440, 1080),
+                policy.selectDisplaySize(supported, STILL_4_3, 1600, 1200).getSize());
+    }
+
+    @Test
+    public void displayTakesSmallestSizeOfStillAspectWhenSurfaceIsSmallerThanAll() {
+        List<FrameSize> supported = sizes(1920, 1440, 640, 480, 320, 240, 176, 99);
+        assertEquals(new FrameSize(320, 240),
+                policy.selectDisplaySize(supported, STILL_4_3, 100, 75).getSize());
+    }
+
+    @Test
+    public void anyAspectMatchesWithoutStillSize() {
+        List<FrameSize> supported = sizes(1920, 1080, 640, 360, 640, 480, 320, 240);
+        assertEquals(new FrameSize(640, 480),
+                policy.selectAnalysisSize(supported, null).getSize());
+        assertEquals(new FrameSize(1920, 1080),
+                policy.selectDisplaySize(supported, null, 1920, 1080).getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoSupportedSizes() {
+        policy.selectAnalysisSize(Collections.<FrameSize>emptyList(), STILL_4_3);
+    }
+
+    /**
+     * @param dimensions width and height of every size, one after another
+     */
+    private static List<FrameSize> sizes(int... dimensions) {
+        FrameSize[] sizes = new FrameSize[dimensions.length / 2];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new FrameSize(dimensions[2 * i], dimensions[2 * i + 1]);
+        }
+        return Arrays.asList(sizes);
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.github.dawidkski.scanner.scan;
+
+import com.github.dawidkski.scanner.detection.Quad;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TiledWarpTest {
+
+    private static final int WIDTH = 1200;
+    private static final int HEIGHT = 900;
+    private static final long STRIP_PIXELS = 20_000;
+
+    private Mat image;
+    private RecordingSource source;
+    private TiledWarp warp;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() {
+        image = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+        Core.randu(image, 0, 256);
+        source = new RecordingSource(image);
+        warp = new TiledWarp(STRIP_PIXELS);
+    }
+
+    @After
+    public void tearDown() {
+        warp.release();
+        image.release();
+    }
+
+    @Test
+    public void matchesWholeWarpOfUprightPage() {
+        assertMatchesWholeWarp(new Quad(new float[]{100, 80, 1100, 60, 1120, 850, 80, 830}));
+    }
+
+    @Test
+    public void matchesWholeWarpOfPageTurnedByFortyFiveDegrees() {
+        assertMatchesWholeWarp(new Quad(new float[]{600, 20, 1030, 450, 600, 880, 170, 450}));
+    }
+
+    @Test
+    public void boundsRegionsOfPageTurnedByFortyFiveDegrees() {
+        Quad contour = new Quad(new float[]{600, 20, 1030, 450, 600, 880, 170, 450});
+        Mat output = warpTiled(contour);
+        output.release();
+        assertTrue("Largest region " + source.maxRegionPixels,
+                source.maxRegionPixels <= TiledWarp.REGION_PER_STRIP * STRIP_PIXELS);
+    }
+
+    private void assertMatchesWholeWarp(Quad contour) {
+        Mat expected = PerspectiveWarp.warp(image, contour);
+        Mat tiled = warpTiled(contour);
+        Mat difference = new Mat();
+        Core.absdiff(expected, tiled, difference);
+        assertEquals(0, Core.countNonZero(difference.reshape(1)));
+        difference.release();
+        tiled.release();
+        expected.release();
+    }
+
+    private Mat warpTiled(Quad contour) {
+        Size size = PerspectiveWarp.outputSize(contour);
+        Mat output = new Mat((int) size.height, (int) size.width, CvType.CV_8UC3);
+        warp.warp(source, contour, size, new TiledWarp.MatSink(output));
+        return output;
+    }
+
+    private static class RecordingSource extends ImageSource.MatSource {
+
+        long maxRegionPixels;
+
+        RecordingSource(Mat image) {
+            super(image);
+        }
+
+        @Override
+        public Mat read(Rect region) {
+            maxRegionPixels = Math.max(maxRegionPixels, (long) region.area());
+            return super.read(region);
+        }
+
+    }
+
+}